@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Worker pool which grows and shrinks between min and max threads count.</p>
+ *
+ * <p>Pool is sampled periodically. If requests waited in the queue longer than
+ * target queue wait, or all threads are busy and requests are queued,
+ * pool grows by half of its size. If less than half of threads are busy
+ * and queue is empty, pool shrinks by one thread.
+ * Each request costs only two reads of {@link System#nanoTime()}
+ * and two atomic additions.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public final class AdaptiveThreadPool implements Executor {
+
+    public static final long DEFAULT_TARGET_QUEUE_WAIT = 10; //10 ms
+    public static final long DEFAULT_SAMPLE_INTERVAL = 500; //500 ms
+
+    private static final double LOW_UTILIZATION = 0.5;
+
+    private final int minThreads;
+    private final int maxThreads;
+    private final ThreadPoolExecutor executor;
+    private volatile long targetQueueWait = DEFAULT_TARGET_QUEUE_WAIT;
+
+    //Accumulated since last sample
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+    private final AtomicLong startedCount = new AtomicLong();
+
+    //Results of last sample
+    private volatile long averageQueueWaitNanos;
+    private volatile double utilization;
+    private final AtomicLong growCount = new AtomicLong();
+    private final AtomicLong shrinkCount = new AtomicLong();
+
+    private ScheduledFuture<?> sampling;
+
+    /**
+     * Create pool which initially has {@code minThreads} threads
+     *
+     * @param minThreads min count of threads
+     * @param maxThreads max count of threads
+     */
+    public AdaptiveThreadPool(int minThreads, int maxThreads) {
+        if (minThreads <= 0 || maxThreads < minThreads) {
+            throw new IllegalArgumentException("minThreads should be a positive number not greater than maxThreads");
+        }
+
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.executor = new ThreadPoolExecutor(minThreads, maxThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger counter = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "anhttpserver-worker-" + counter.incrementAndGet());
+                    }
+                });
+    }
+
+    public void execute(final Runnable command) {
+        final long submitted = System.nanoTime();
+        executor.execute(new Runnable() {
+            public void run() {
+                queueWaitNanos.addAndGet(System.nanoTime() - submitted);
+                startedCount.incrementAndGet();
+                command.run();
+            }
+        });
+    }
+
+    /**
+     * Start periodical sampling of the pool
+     *
+     * @param scheduler scheduler which will run sampling
+     * @param interval interval between samples in milliseconds
+     */
+    public synchronized void startSampling(ScheduledExecutorService scheduler, long interval) {
+        if (sampling == null) {
+            sampling = scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    sample();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Take a sample of queue wait time and utilization and resize pool if needed
+     */
+    synchronized void sample() {
+        long count = startedCount.getAndSet(0);
+        long wait = queueWaitNanos.getAndSet(0);
+        averageQueueWaitNanos = count > 0 ? wait / count : 0;
+
+        int size = executor.getCorePoolSize();
+        utilization = (double) executor.getActiveCount() / size;
+        boolean queued = !executor.getQueue().isEmpty();
+
+        if (size < maxThreads && (averageQueueWaitNanos > TimeUnit.MILLISECONDS.toNanos(targetQueueWait)
+                || (queued && utilization >= 1))) {
+            executor.setCorePoolSize(Math.min(maxThreads, size + Math.max(1, size / 2)));
+            growCount.incrementAndGet();
+        } else if (size > minThreads && !queued && utilization < LOW_UTILIZATION) {
+            executor.setCorePoolSize(size - 1);
+            shrinkCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stop sampling and threads of the pool
+     */
+    public synchronized void shutdown() {
+        if (sampling != null) {
+            sampling.cancel(false);
+            sampling = null;
+        }
+
+        executor.shutdown();
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * Return queue wait time in milliseconds above which pool grows.
+     *
+     * @return target queue wait
+     */
+    public long getTargetQueueWait() {
+        return targetQueueWait;
+    }
+
+    public void setTargetQueueWait(long targetQueueWait) {
+        if (targetQueueWait < 0) {
+            throw new IllegalArgumentException("targetQueueWait should not be negative");
+        }
+
+        this.targetQueueWait = targetQueueWait;
+    }
+
+    /**
+     * Return count of threads pool currently aims to have
+     *
+     * @return current size of the pool
+     */
+    public int getPoolSize() {
+        return executor.getCorePoolSize();
+    }
+
+    /**
+     * Return count of requests being processed now
+     *
+     * @return count of active requests
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Return count of requests waiting for a thread
+     *
+     * @return count of queued requests
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Return average time requests waited in queue, measured by last sample
+     *
+     * @param unit unit of returned value
+     * @return average queue wait
+     */
+    public long getAverageQueueWait(TimeUnit unit) {
+        return unit.convert(averageQueueWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Return share of busy threads, measured by last sample
+     *
+     * @return utilization from {@code 0.0} to {@code 1.0}
+     */
+    public double getUtilization() {
+        return utilization;
+    }
+
+    /**
+     * Return how many times pool was grown
+     *
+     * @return count of grow decisions
+     */
+    public long getGrowCount() {
+        return growCount.get();
+    }
+
+    /**
+     * Return how many times pool was shrunk
+     *
+     * @return count of shrink decisions
+     */
+    public long getShrinkCount() {
+        return shrinkCount.get();
+    }
+}
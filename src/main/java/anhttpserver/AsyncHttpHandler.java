@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.io.InputStream;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * <p>{@link HttpHandler} which produces response asynchronously.</p>
+ *
+ * <p>Server calls {@link #getResponseAsync(HttpRequestContext)} and releases
+ * its thread immediately, response is sent when returned stage is completed.
+ * If stage is not completed within {@link #getResponseTimeout(HttpRequestContext)}
+ * client receives {@code 503 Service Unavailable}.
+ * If route has filters thread waits for response, see {@link FilterChain}.</p>
+ *
+ * <p>
+ *     Example of usage:<br/>
+ *
+ *     <pre>
+ *         server.addHandler("/slow", new AsyncHttpHandlerAdapter() {
+ *             public CompletionStage&lt;InputStream&gt; getResponseAsync(HttpRequestContext httpRequestContext) {
+ *                 return downstreamClient.call().thenApply(...);
+ *             }
+ *         });
+ *     </pre>
+ * </p>
+ *
+ * @author Sergey Prilukin
+ */
+public interface AsyncHttpHandler extends HttpHandler {
+
+    /**
+     * Return stage which will be completed with response.
+     * Response code, size and headers are taken from the handler
+     * after stage is completed.
+     *
+     * @param httpRequestContext instance of {@link HttpRequestContext} -
+     *  facade for {@link com.sun.net.httpserver.HttpExchange}
+     * @return stage completed with {@link InputStream} with response
+     */
+    public CompletionStage<InputStream> getResponseAsync(HttpRequestContext httpRequestContext);
+
+    /**
+     * Return max time to wait for response.
+     *
+     * @param httpRequestContext instance of {@link HttpRequestContext} -
+     *  facade for {@link com.sun.net.httpserver.HttpExchange}
+     * @return timeout in milliseconds, zero or negative value means no timeout
+     */
+    public long getResponseTimeout(HttpRequestContext httpRequestContext);
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * Adapter for {@link AsyncHttpHandler},
+ * descendants should only implement {@link #getResponseAsync(HttpRequestContext)}
+ *
+ * @author Sergey Prilukin
+ */
+public abstract class AsyncHttpHandlerAdapter extends SimpleHttpHandlerAdapter implements AsyncHttpHandler {
+
+    public static final long DEFAULT_RESPONSE_TIMEOUT = 30000L;
+
+    private final long responseTimeout;
+
+    /**
+     * Create adapter with {@link #DEFAULT_RESPONSE_TIMEOUT}
+     */
+    public AsyncHttpHandlerAdapter() {
+        this(DEFAULT_RESPONSE_TIMEOUT);
+    }
+
+    /**
+     * Create adapter with specified timeout
+     *
+     * @param responseTimeout timeout in milliseconds, zero or negative value means no timeout
+     */
+    public AsyncHttpHandlerAdapter(long responseTimeout) {
+        this.responseTimeout = responseTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getResponseTimeout(HttpRequestContext httpRequestContext) {
+        return responseTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * in this implementation waits for result of {@link #getResponseAsync(HttpRequestContext)},
+     * servers call it only if route has filters.
+     */
+    public final InputStream getResponse(HttpRequestContext httpRequestContext) throws IOException {
+        return awaitResponse(this, httpRequestContext);
+    }
+
+    /**
+     * Wait for response of asynchronous handler in current thread
+     * no longer than {@link AsyncHttpHandler#getResponseTimeout(HttpRequestContext)}
+     *
+     * @param handler asynchronous handler
+     * @param httpRequestContext instance of {@link HttpRequestContext} -
+     *  facade for {@link com.sun.net.httpserver.HttpExchange}
+     * @return {@link InputStream} with response
+     * @throws IOException if handler failed with {@link IOException}
+     * @throws HttpException with {@link DefaultHttpServer#ASYNC_TIMEOUT_RESPONSE_CODE} if response is not ready in time
+     */
+    static InputStream awaitResponse(AsyncHttpHandler handler, HttpRequestContext httpRequestContext) throws IOException {
+        CompletableFuture<InputStream> future = handler.getResponseAsync(httpRequestContext).toCompletableFuture();
+        long timeout = handler.getResponseTimeout(httpRequestContext);
+        try {
+            return timeout > 0 ? future.get(timeout, TimeUnit.MILLISECONDS) : future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (TimeoutException e) {
+            //Response which is ready after timeout is not needed anymore
+            future.whenComplete(new BiConsumer<InputStream, Throwable>() {
+                public void accept(InputStream response, Throwable error) {
+                    IOUtils.closeQuietly(response);
+                }
+            });
+
+            throw new HttpException(DefaultHttpServer.ASYNC_TIMEOUT_RESPONSE_CODE);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Executor with bounded concurrency and bounded queue which isolates
+ * one route or group of routes from others, so slow handler can not
+ * take all server threads.</p>
+ *
+ * <p>Requests which do not fit into the queue are rejected
+ * and receive {@code 503 Service Unavailable}.</p>
+ *
+ * <p>
+ *     Example of usage:<br/>
+ *
+ *     <pre>
+ *         Bulkhead reports = new Bulkhead("reports", 2, 10);
+ *         server.addHandler("/report", reportHandler, reports);
+ *         server.addHandler("/export", exportHandler, reports);
+ *     </pre>
+ * </p>
+ *
+ * @author Sergey Prilukin
+ */
+public final class Bulkhead implements Executor {
+
+    private final String name;
+    private final int queueDepth;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Create bulkhead
+     *
+     * @param name name of the bulkhead, used in names of its threads
+     * @param maxConcurrent max count of requests processed at the same time
+     * @param queueDepth max count of requests waiting for a thread, zero means no waiting
+     */
+    public Bulkhead(final String name, int maxConcurrent, int queueDepth) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent should be a positive number");
+        }
+
+        if (queueDepth < 0) {
+            throw new IllegalArgumentException("queueDepth should not be negative");
+        }
+
+        this.name = name;
+        this.queueDepth = queueDepth;
+        this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 0L, TimeUnit.MILLISECONDS,
+                queueDepth > 0 ? new ArrayBlockingQueue<Runnable>(queueDepth) : new SynchronousQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger counter = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "anhttpserver-" + name + "-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws RejectedExecutionException if all threads are busy and queue is full
+     */
+    public void execute(Runnable command) {
+        try {
+            executor.execute(command);
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            throw e;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxConcurrent() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Return count of requests being processed now
+     *
+     * @return count of active requests
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Return count of requests waiting for a thread
+     *
+     * @return count of queued requests
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Return count of requests rejected because bulkhead was full
+     *
+     * @return count of rejected requests
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Return count of processed requests
+     *
+     * @return count of completed requests
+     */
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    /**
+     * Stop threads of this bulkhead, queued requests are still processed
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
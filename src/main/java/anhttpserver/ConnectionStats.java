@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Statistics of a client connection collected by server
+ * when {@link DefaultHttpServer#setConnectionStatsEnabled(boolean)} is enabled.</p>
+ *
+ * <p>Underlying JDK server does not notify when connection is closed,
+ * so connection is considered open until client sends {@code Connection: close}
+ * or connection is idle longer than idle timeout of JDK server.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public final class ConnectionStats {
+
+    private final InetSocketAddress remoteAddress;
+    private final long openedTime = System.currentTimeMillis();
+    private volatile long lastActiveTime = openedTime;
+
+    private final AtomicInteger activeRequestsCount = new AtomicInteger();
+    private final AtomicLong requestsCount = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    //Total time of intervals which end with corresponding phase of RequestTrace
+    private final AtomicLongArray phaseTimes = new AtomicLongArray(RequestTrace.PHASES_COUNT);
+
+    ConnectionStats(InetSocketAddress remoteAddress) {
+        this.remoteAddress = remoteAddress;
+    }
+
+    void requestStarted() {
+        activeRequestsCount.incrementAndGet();
+        lastActiveTime = System.currentTimeMillis();
+    }
+
+    void requestCompleted(RequestTrace trace, long read, long written) {
+        long previous = trace.getTimestamp(RequestTrace.RECEIVED);
+        for (int phase = RequestTrace.DISPATCHED; phase <= RequestTrace.COMPLETED; phase++) {
+            long timestamp = trace.getTimestamp(phase);
+            if (timestamp != 0) {
+                phaseTimes.addAndGet(phase, timestamp - previous);
+                previous = timestamp;
+            }
+        }
+
+        bytesRead.addAndGet(read);
+        bytesWritten.addAndGet(written);
+        requestsCount.incrementAndGet();
+        lastActiveTime = System.currentTimeMillis();
+        activeRequestsCount.decrementAndGet();
+    }
+
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * Return time when first request of connection was received
+     *
+     * @return time in milliseconds
+     */
+    public long getOpenedTime() {
+        return openedTime;
+    }
+
+    /**
+     * Return time when last request of connection was received or completed
+     *
+     * @return time in milliseconds
+     */
+    public long getLastActiveTime() {
+        return lastActiveTime;
+    }
+
+    /**
+     * Return count of requests of this connection which are being processed
+     *
+     * @return count of requests
+     */
+    public int getActiveRequestsCount() {
+        return activeRequestsCount.get();
+    }
+
+    /**
+     * Return count of completed requests of this connection
+     *
+     * @return count of requests
+     */
+    public long getRequestsCount() {
+        return requestsCount.get();
+    }
+
+    /**
+     * Return count of request body bytes read by handlers of completed requests
+     *
+     * @return count of bytes
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * Return count of response body bytes written for completed requests
+     *
+     * @return count of bytes
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * Return total time which completed requests of this connection
+     * spent in interval which ends with given phase, for example
+     * {@link RequestTrace#DISPATCHED} for time spent in executor queue
+     * or {@link RequestTrace#COMPLETED} for time of writing response body.
+     * If request skipped a phase its time is added to the next reached phase.
+     *
+     * @param phase one of phase constants of {@link RequestTrace}
+     * @param unit unit of returned value
+     * @return total time
+     */
+    public long getTime(int phase, TimeUnit unit) {
+        return unit.convert(phaseTimes.get(phase), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Return time since connection was active
+     *
+     * @param unit unit of returned value
+     * @return idle time, {@code 0} if connection has requests being processed
+     */
+    public long getIdleTime(TimeUnit unit) {
+        return activeRequestsCount.get() > 0
+                ? 0 : unit.convert(System.currentTimeMillis() - lastActiveTime, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s requests=%s read=%s written=%s", remoteAddress, requestsCount, bytesRead, bytesWritten);
+    }
+}
@@ -22,21 +22,57 @@
 
 package anhttpserver;
 
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsExchange;
+import com.sun.net.httpserver.HttpsParameters;
+import com.sun.net.httpserver.HttpsServer;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.GeneralSecurityException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -65,24 +101,123 @@ public final class DefaultHttpServer implements HttpServer {
     public static final String DEFAULT_HOST = "localhost";
     public static final int DEFAULT_MAX_THREADS_COUNT = 1;
 
+    //Request headers checked by server
+    public static final String HOST_HEADER_NAME = "Host";
+    public static final String EXPECT_HEADER_NAME = "Expect";
+    public static final String EXPECT_CONTINUE = "100-continue";
+    public static final String CONNECTION_HEADER_NAME = "Connection";
+    public static final String CONNECTION_CLOSE = "close";
+
+    //Response codes of requests rejected by server
+    public static final int EXPECTATION_FAILED_RESPONSE_CODE = 417;
+    public static final int REQUEST_HEADER_FIELDS_TOO_LARGE_RESPONSE_CODE = 431;
+
+    //Response code sent when asynchronous handler does not respond in time
+    public static final int ASYNC_TIMEOUT_RESPONSE_CODE = HttpURLConnection.HTTP_UNAVAILABLE;
+
+    //Content type of default error responses
+    public static final String ERROR_CONTENT_TYPE = "text/plain; charset=UTF-8";
+
+    //Size of buffer used to copy streaming responses
+    public static final int STREAMING_BUFFER_SIZE = 4096;
+
+    /** Time in milliseconds since the first read of request body during which its data rate is not checked */
+    public static final long DATA_RATE_GRACE_PERIOD = 1000;
+
+    /** Interval in milliseconds of removing closed connections from connection statistics */
+    public static final long CONNECTION_STATS_SWEEP_INTERVAL = 1000;
+
+    //Path of temporary route requested by warm up
+    public static final String WARM_UP_PATH = "/anhttpserver-warm-up";
+
+    //Connect and read timeout in milliseconds of warm up requests
+    public static final int WARM_UP_TIMEOUT = 5000;
+
+    //Version of format of configuration snapshot
+    public static final int SNAPSHOT_VERSION = 1;
+
     public static final String HTTP_PREFIX = "http://";
+    public static final String HTTPS_PREFIX = "https://";
     public static final String PORT_DELIMITER = ":";
     public static final String PATH_DELIMITER = "/";
 
     public static final SimpleDateFormat REQUEST_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
     public static final String REMOTE_HOST_REGEXP = "^/([^\\:]+)\\:[\\d]+$";
+    private static final Pattern REMOTE_HOST_PATTERN = Pattern.compile(REMOTE_HOST_REGEXP);
+
+    //Key of TLS session value which marks sessions already seen by server
+    private static final String HTTPS_SESSION_SEEN_KEY = "anhttpserver.https.session.seen";
+
+    //Settings of JDK server, read once when the first server in JVM is created
+    private static final String MAX_REQUEST_TIME_PROPERTY = "sun.net.httpserver.maxReqTime";
+    private static final String MAX_RESPONSE_TIME_PROPERTY = "sun.net.httpserver.maxRspTime";
+    private static final String MAX_REQUEST_HEADERS_PROPERTY = "sun.net.httpserver.maxReqHeaders";
+    private static final String IDLE_INTERVAL_PROPERTY = "sun.net.httpserver.idleInterval";
+    private static final long DEFAULT_IDLE_INTERVAL = 30;
 
     private static final Log log = LogFactory.getLog(DefaultHttpServer.class);
 
+    //Set when the first server in JVM is created, settings of JDK server can not be changed after that
+    private static volatile boolean serverCreated;
+
     private com.sun.net.httpserver.HttpServer httpServer;
 
+    //Used for timeouts of asynchronous handlers, created on demand
+    private ScheduledExecutorService scheduler;
+
+    //Worker pool if min threads count is less than max threads count
+    private AdaptiveThreadPool threadPool;
+    private ExecutorService fixedThreadPool;
+
+    //Mock routes files checked by scheduler, stopped with server
+    private final List<MockRoutesHandler> watchedMockRoutes = new ArrayList<MockRoutesHandler>();
+
+    //States replicated by scheduler, stopped with server
+    private final List<SharedState> replicatedStates = new ArrayList<SharedState>();
+
     private int port = DEFAULT_PORT;
     private String host = DEFAULT_HOST;
     private int maxThreads = DEFAULT_MAX_THREADS_COUNT;
+    private int minThreads;
+    private int partMemoryThreshold = HttpRequestContext.DEFAULT_PART_MEMORY_THRESHOLD;
+    private volatile long slowRequestThreshold = -1;
+    private volatile RequestJournal requestJournal;
+    private HttpsConfiguration httpsConfiguration;
+    private volatile boolean started;
+
+    //Set while warm up requests are sent, they are not part of statistics and journal
+    private volatile boolean warmingUp;
+
+    private final AtomicLong httpsConnectionsCount = new AtomicLong();
+    private final AtomicLong httpsSessionsCount = new AtomicLong();
+
+    private final VirtualHost defaultHost = new VirtualHost();
+    private final Map<String, VirtualHost> virtualHosts = new ConcurrentHashMap<String, VirtualHost>();
+    private HttpFilter[] filters = Route.NO_FILTERS;
+    private volatile Route fallbackRoute;
+    private volatile ErrorHandler errorHandler;
+    private volatile long maxRequestSize = -1;
+    private volatile int maxRequestHeadersSize = -1;
+    private volatile long minRequestDataRate = -1;
 
-    private Map<String, HttpHandler> handlers = new Hashtable<String, HttpHandler>();
+    private volatile boolean connectionStatsEnabled;
+    private final Map<InetSocketAddress, ConnectionStats> connections = new ConcurrentHashMap<InetSocketAddress, ConnectionStats>();
+    private ScheduledFuture<?> connectionStatsSweep;
+
+    //Error responses are encoded once and reused for every failed request
+    private final Map<Integer, StaticResponseHandler> errorResponses = new ConcurrentHashMap<Integer, StaticResponseHandler>();
+
+    //Responses for other codes are generated on demand, they are not part of configuration
+    private final Map<Integer, StaticResponseHandler> generatedErrorResponses = new ConcurrentHashMap<Integer, StaticResponseHandler>();
+
+    private final AtomicLong requestsCount = new AtomicLong();
+    private final AtomicLong errorsCount = new AtomicLong();
+    private final Map<Integer, AtomicLong> errorsCountByCode = new ConcurrentHashMap<Integer, AtomicLong>();
     private Map<String, String> defaultHeaders = new Hashtable<String, String>();
 
+    //Snapshot of default headers which is rebuilt every time default headers are changed
+    private volatile PreparedHeaders preparedDefaultHeaders = PreparedHeaders.EMPTY;
+
     private com.sun.net.httpserver.HttpHandler defaultHandler = new com.sun.net.httpserver.HttpHandler() {
 
         private void logRequest(HttpExchange httpExchange, int responseCode, long responseLength) {
@@ -113,7 +248,7 @@ public final class DefaultHttpServer implements HttpServer {
 
                 String remoteHost = httpExchange.getRemoteAddress().toString();
                 String remoteAddress = remoteHost;
-                Matcher matcher = Pattern.compile(REMOTE_HOST_REGEXP).matcher(remoteHost);
+                Matcher matcher = REMOTE_HOST_PATTERN.matcher(remoteHost);
                 if (matcher.find()) {
                     remoteAddress = matcher.group(1);
                 }
@@ -121,90 +256,569 @@ public final class DefaultHttpServer implements HttpServer {
                 String date = REQUEST_DATE_FORMAT.format(new Date());
                 String method = httpExchange.getRequestMethod();
                 String path = httpExchange.getRequestURI().getPath();
-                String userAgent = httpExchange.getRequestHeaders().get("User-Agent").get(0);
+                String userAgent = httpExchange.getRequestHeaders().getFirst("User-Agent");
 
                 log.info(String.format("%s [%s] %s %s %s %s %s", remoteAddress, date, method, path, responseCode, responseLength, userAgent));
             }
         }
 
-        private void internalHandleRequest(HttpHandler handler, HttpExchange httpExchange) throws IOException {
-            HttpRequestContext httpRequestContext = new HttpRequestContext(httpExchange);
+        private void logSlowRequest(HttpExchange httpExchange, RequestTrace trace) {
+            long threshold = slowRequestThreshold;
+            if (threshold >= 0 && log.isWarnEnabled()) {
+                long elapsed = trace.getElapsed(TimeUnit.MILLISECONDS);
+                if (elapsed >= threshold) {
+                    log.warn(String.format("Slow request %s %s %s ms trace-id=%s: %s", httpExchange.getRequestMethod(),
+                            httpExchange.getRequestURI(), elapsed, trace.getTraceId(), trace));
+                }
+            }
+        }
+
+        private void recordRequest(HttpExchange httpExchange) throws IOException {
+            RequestJournal journal = requestJournal;
+            if (journal != null && !isWarmUp(httpExchange)) {
+                journal.record(httpExchange);
+            }
+        }
+
+        private boolean isWarmUp(HttpExchange httpExchange) {
+            return warmingUp && WARM_UP_PATH.equals(httpExchange.getRequestURI().getPath());
+        }
+
+        private void copyStreaming(InputStream response, OutputStream out) throws IOException {
+            byte[] buffer = new byte[STREAMING_BUFFER_SIZE];
+            int read;
+            while ((read = response.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                out.flush();
+            }
+        }
+
+        private void writeResponse(HttpHandler handler, HttpRequestContext httpRequestContext,
+                                   HttpExchange httpExchange, InputStream response) throws IOException {
+
+            //Add default headers
+            preparedDefaultHeaders.addTo(httpExchange.getResponseHeaders());
+
+            //Add headers from handler
+            Map<String, String> responseHeaders = handler.getResponseHeaders(httpRequestContext);
+            if (responseHeaders != null && responseHeaders.size() > 0) {
+                for (Map.Entry<String, String> entry: responseHeaders.entrySet()) {
+                    httpExchange.getResponseHeaders().add(entry.getKey(), entry.getValue());
+                }
+            }
+
+            Map<String, List<String>> multiValueHeaders = httpRequestContext.getMultiValueResponseHeaders(false);
+            if (multiValueHeaders != null) {
+                for (Map.Entry<String, List<String>> entry: multiValueHeaders.entrySet()) {
+                    for (String value: entry.getValue()) {
+                        httpExchange.getResponseHeaders().add(entry.getKey(), value);
+                    }
+                }
+            }
+
+            //Do not write response body for HTTP HEAD request
+            long responseLength = response != null && !HTTP_HEAD.equals(httpExchange.getRequestMethod())
+                    ? handler.getResponseSize(httpRequestContext) : 0L;
+            boolean streaming = responseLength == HttpHandler.STREAMING_RESPONSE_SIZE;
+
+            int responseCode = handler.getResponseCode(httpRequestContext);
+            httpExchange.sendResponseHeaders(responseCode, streaming ? 0L : responseLength);
+            httpRequestContext.getTrace().mark(RequestTrace.HEADERS_SENT);
+
+            logRequest(httpExchange, responseCode, responseLength);
+            if (streaming) {
+                copyStreaming(response, httpExchange.getResponseBody());
+            } else if (responseLength != 0) {
+                IOUtils.copyLarge(response, httpExchange.getResponseBody());
+            }
+        }
+
+        private void internalHandleRequest(HttpHandler handler, HttpExchange httpExchange,
+                                           HttpRequestContext httpRequestContext) throws IOException {
+            RequestTrace trace = httpRequestContext.getTrace();
             handler.cleanContext(httpRequestContext);
             InputStream response = null;
 
             try {
                 //Call getReponse of passed handler
+                trace.mark(RequestTrace.HANDLER_STARTED);
                 response = handler.getResponse(httpRequestContext);
+                trace.mark(RequestTrace.HANDLER_COMPLETED);
+                recordRequest(httpExchange);
+                writeResponse(handler, httpRequestContext, httpExchange, response);
+            } finally {
+                if (response != null) {
+                    response.close();
+                }
+            }
+        }
 
-                //Add default headers
-                for (Map.Entry<String, String> entry: defaultHeaders.entrySet()) {
-                    httpExchange.getResponseHeaders().add(entry.getKey(), entry.getValue());
+        /**
+         * Ask handler for response and return without waiting for it,
+         * exchange is completed and closed on server executor when response is ready.
+         */
+        private void internalHandleAsyncRequest(final Route route, final AsyncHttpHandler handler,
+                                                final HttpExchange httpExchange,
+                                                final HttpRequestContext httpRequestContext) {
+            final RequestTrace trace = httpRequestContext.getTrace();
+            handler.cleanContext(httpRequestContext);
+
+            trace.mark(RequestTrace.HANDLER_STARTED);
+            CompletionStage<InputStream> stage = handler.getResponseAsync(httpRequestContext);
+
+            final CompletableFuture<InputStream> result = new CompletableFuture<InputStream>();
+            long timeout = handler.getResponseTimeout(httpRequestContext);
+            final ScheduledFuture<?> timeoutFuture = timeout > 0 ? getScheduler().schedule(new Runnable() {
+                public void run() {
+                    result.completeExceptionally(new TimeoutException());
                 }
+            }, timeout, TimeUnit.MILLISECONDS) : null;
 
-                //Add headers from handler
-                Map<String, String> responseHeaders = handler.getResponseHeaders(httpRequestContext);
-                if (responseHeaders != null && responseHeaders.size() > 0) {
-                    for (Map.Entry<String, String> entry: responseHeaders.entrySet()) {
-                        httpExchange.getResponseHeaders().add(entry.getKey(), entry.getValue());
+            stage.whenComplete(new BiConsumer<InputStream, Throwable>() {
+                public void accept(InputStream response, Throwable error) {
+                    if (!result.isDone()) {
+                        trace.mark(RequestTrace.HANDLER_COMPLETED);
+                    }
+
+                    boolean completed = error != null ? result.completeExceptionally(error) : result.complete(response);
+                    if (!completed && response != null) {
+                        //Request has already timed out
+                        IOUtils.closeQuietly(response);
                     }
                 }
+            });
+
+            result.whenComplete(new BiConsumer<InputStream, Throwable>() {
+                public void accept(final InputStream response, final Throwable error) {
+                    if (timeoutFuture != null) {
+                        timeoutFuture.cancel(false);
+                    }
 
-                //Do not write response body for HTTP HEAD request
-                long responseLength = response != null && !HTTP_HEAD.equals(httpExchange.getRequestMethod())
-                        ? handler.getResponseSize(httpRequestContext) : 0L;
+                    //Response is written by executor of the route, so slow clients of one route do not starve others
+                    Executor executor = route != null ? route.getExecutor() : null;
+                    if (executor == null) {
+                        executor = httpServer.getExecutor();
+                    }
 
-                int responseCode = handler.getResponseCode(httpRequestContext);
-                httpExchange.sendResponseHeaders(responseCode, responseLength);
+                    try {
+                        executor.execute(new Runnable() {
+                            public void run() {
+                                completeAsyncRequest(route, handler, httpExchange, httpRequestContext, response, error);
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        //Executor is full or shut down, exchange is completed by thread which completed the response
+                        IOUtils.closeQuietly(response);
+                        try {
+                            sendError(route, httpExchange, httpRequestContext, HttpURLConnection.HTTP_UNAVAILABLE, e);
+                        } catch (IOException ioe) {
+                            if (log.isDebugEnabled()) {
+                                log.debug(ioe.getMessage(), ioe);
+                            }
+                        } finally {
+                            completeExchange(httpExchange, httpRequestContext);
+                        }
+                    }
+                }
+            });
+        }
 
-                logRequest(httpExchange, responseCode, responseLength);
-                if (responseLength != 0) {
-                    IOUtils.copyLarge(response, httpExchange.getResponseBody());
+        private void completeAsyncRequest(Route route, AsyncHttpHandler handler, HttpExchange httpExchange,
+                                          HttpRequestContext httpRequestContext, InputStream response, Throwable error) {
+            try {
+                if (error == null) {
+                    recordRequest(httpExchange);
+                    writeResponse(handler, httpRequestContext, httpExchange, response);
+                } else if (error instanceof TimeoutException) {
+                    sendError(route, httpExchange, httpRequestContext, ASYNC_TIMEOUT_RESPONSE_CODE, error);
+                } else {
+                    handleException(route, httpExchange, httpRequestContext, error);
                 }
+            } catch (Exception e) {
+                handleException(route, httpExchange, httpRequestContext, e);
             } finally {
-                if (response != null) {
-                    response.close();
+                IOUtils.closeQuietly(response);
+                completeExchange(httpExchange, httpRequestContext);
+            }
+        }
+
+        private void writeStaticResponse(StaticResponseHandler handler, HttpExchange httpExchange,
+                                         HttpRequestContext httpRequestContext) throws IOException {
+            //Add default headers followed by prepared headers of static response
+            handler.getPreparedHeaders(preparedDefaultHeaders).addTo(httpExchange.getResponseHeaders());
+
+            byte[] body = handler.getBody();
+
+            //Do not write response body for HTTP HEAD request
+            long responseLength = !HTTP_HEAD.equals(httpExchange.getRequestMethod()) ? body.length : 0L;
+
+            int responseCode = handler.getResponseCode(null);
+            recordRequest(httpExchange);
+            httpExchange.sendResponseHeaders(responseCode, responseLength);
+            httpRequestContext.getTrace().mark(RequestTrace.HEADERS_SENT);
+
+            logRequest(httpExchange, responseCode, responseLength);
+            if (responseLength != 0) {
+                httpExchange.getResponseBody().write(body);
+            }
+        }
+
+        private Route findRoute(HttpExchange httpExchange) {
+            String path = httpExchange.getRequestURI().getPath();
+            if (!virtualHosts.isEmpty()) {
+                String host = VirtualHost.normalizeHost(httpExchange.getRequestHeaders().getFirst(HOST_HEADER_NAME));
+                VirtualHost virtualHost = host != null ? virtualHosts.get(host) : null;
+                Route route = virtualHost != null ? virtualHost.findRoute(path) : null;
+                if (route != null) {
+                    return route;
                 }
             }
+
+            Route route = defaultHost.findRoute(path);
+            return route != null ? route : fallbackRoute;
         }
 
-        private HttpHandler findHandler(String path) {
-            StringBuilder sb = new StringBuilder(path);
-            while (sb.lastIndexOf(PATH_DELIMITER) > -1) {
-                if (handlers.containsKey(sb.toString())) {
-                    return handlers.get(sb.toString());
+        private void countHttpsSession(HttpsExchange httpsExchange) {
+            SSLSession session = httpsExchange.getSSLSession();
+            if (session != null && session.getValue(HTTPS_SESSION_SEEN_KEY) == null) {
+                session.putValue(HTTPS_SESSION_SEEN_KEY, Boolean.TRUE);
+                httpsSessionsCount.incrementAndGet();
+            }
+        }
+
+        /**
+         * Send error response if response headers are not sent yet,
+         * otherwise client will see closed connection
+         */
+        private void sendError(Route route, HttpExchange httpExchange, HttpRequestContext httpRequestContext,
+                               int responseCode, Throwable error) throws IOException {
+            errorsCount.incrementAndGet();
+            AtomicLong count = errorsCountByCode.get(responseCode);
+            if (count == null) {
+                synchronized (errorsCountByCode) {
+                    count = errorsCountByCode.get(responseCode);
+                    if (count == null) {
+                        count = new AtomicLong();
+                        errorsCountByCode.put(responseCode, count);
+                    }
                 }
+            }
 
-                sb.delete(sb.lastIndexOf(PATH_DELIMITER), sb.length());
-                if (sb.length() == 0) {
-                    sb.append(PATH_DELIMITER);
+            count.incrementAndGet();
+
+            if (httpExchange.getResponseCode() != -1) {
+                return;
+            }
+
+            HttpHandler handler = route != null ? route.getHandler() : null;
+            ErrorHandler routeErrorHandler = handler instanceof ErrorHandler ? (ErrorHandler) handler : errorHandler;
+            StaticResponseHandler response = null;
+            if (routeErrorHandler != null) {
+                try {
+                    response = routeErrorHandler.handleError(httpRequestContext, responseCode, error);
+                } catch (RuntimeException e) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(e.getMessage(), e);
+                    }
                 }
             }
 
-            return null;
+            writeStaticResponse(response != null ? response : getErrorResponse(responseCode), httpExchange, httpRequestContext);
         }
 
-        public void handle(HttpExchange httpExchange) throws IOException {
-            String path = httpExchange.getRequestURI().getPath();
+        private void handleException(Route route, HttpExchange httpExchange, HttpRequestContext httpRequestContext,
+                                     Throwable error) {
+            //Exceptions of completion stages are wrapped
+            while (error instanceof CompletionException && error.getCause() != null) {
+                error = error.getCause();
+            }
 
-            try {
-                HttpHandler handler = findHandler(path);
-                if (handler != null) {
-                    internalHandleRequest(handler, httpExchange);
+            int responseCode;
+            if (error instanceof HttpException) {
+                responseCode = ((HttpException) error).getResponseCode();
+            } else {
+                responseCode = HttpURLConnection.HTTP_INTERNAL_ERROR;
+                if (log.isDebugEnabled()) {
+                    log.debug(error.getMessage(), error);
                 } else {
-                    httpExchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, 0);
+                    log.warn(String.format("%s %s failed: %s", httpExchange.getRequestMethod(),
+                            httpExchange.getRequestURI(), error));
                 }
-            } catch (Exception e) {
+            }
+
+            try {
+                sendError(route, httpExchange, httpRequestContext, responseCode, error);
+            } catch (IOException e) {
                 if (log.isDebugEnabled()) {
                     log.debug(e.getMessage(), e);
                 }
+            }
+        }
+
+        private void dispatch(Route route, HttpExchange httpExchange, HttpRequestContext httpRequestContext) {
+            boolean completed = true;
+            httpRequestContext.getTrace().mark(RequestTrace.DISPATCHED);
+
+            try {
+                HttpHandler handler = route != null ? route.getHandler() : null;
+                if (route != null && route.hasFilters()) {
+                    internalHandleRequest(route.newFilterChain(), httpExchange, httpRequestContext);
+                } else if (handler instanceof StaticResponseHandler) {
+                    writeStaticResponse((StaticResponseHandler) handler, httpExchange, httpRequestContext);
+                } else if (handler instanceof AsyncHttpHandler) {
+                    internalHandleAsyncRequest(route, (AsyncHttpHandler) handler, httpExchange, httpRequestContext);
+                    completed = false;
+                } else if (handler != null) {
+                    internalHandleRequest(handler, httpExchange, httpRequestContext);
+                } else {
+                    sendError(null, httpExchange, httpRequestContext, HttpURLConnection.HTTP_NOT_FOUND, null);
+                }
+            } catch (Exception e) {
+                handleException(route, httpExchange, httpRequestContext, e);
             } finally {
-                httpExchange.close();
+                if (completed) {
+                    completeExchange(httpExchange, httpRequestContext);
+                }
+            }
+        }
+
+        /**
+         * Check request before its body is read
+         *
+         * @return {@link RequestAdmission#ADMIT} or response code of error
+         */
+        private int admit(Route route, HttpExchange httpExchange, HttpRequestContext httpRequestContext) {
+            Headers requestHeaders = httpExchange.getRequestHeaders();
+
+            //100 Continue is already sent by underlying server, other expectations are not supported
+            String expect = requestHeaders.getFirst(EXPECT_HEADER_NAME);
+            if (expect != null && !EXPECT_CONTINUE.equalsIgnoreCase(expect.trim())) {
+                return EXPECTATION_FAILED_RESPONSE_CODE;
+            }
+
+            int maxHeadersSize = maxRequestHeadersSize;
+            if (maxHeadersSize >= 0 && getHeadersSize(requestHeaders) > maxHeadersSize) {
+                return REQUEST_HEADER_FIELDS_TOO_LARGE_RESPONSE_CODE;
+            }
+
+            HttpHandler handler = route != null ? route.getHandler() : null;
+            long maxSize = maxRequestSize;
+            long minDataRate = minRequestDataRate;
+            boolean countBody = isCounted(httpExchange);
+            if (maxSize < 0 && minDataRate <= 0 && !countBody && !(handler instanceof RequestAdmission)) {
+                return RequestAdmission.ADMIT;
+            }
+
+            long contentLength = httpRequestContext.getContentLength();
+            if (maxSize >= 0 && contentLength > maxSize) {
+                return HttpURLConnection.HTTP_ENTITY_TOO_LARGE;
+            }
+
+            //Size of chunked body is known only when it is read
+            if ((maxSize >= 0 && contentLength < 0) || minDataRate > 0 || countBody) {
+                httpExchange.setStreams(new RequestBodyInputStream(httpExchange.getRequestBody(),
+                        maxSize, minDataRate), null);
+            }
+
+            return handler instanceof RequestAdmission
+                    ? ((RequestAdmission) handler).admit(httpRequestContext) : RequestAdmission.ADMIT;
+        }
+
+        private int getHeadersSize(Headers headers) {
+            int size = 0;
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                for (String value : entry.getValue()) {
+                    //name, colon, space, value, CRLF
+                    size += entry.getKey().length() + value.length() + 4;
+                }
+            }
+
+            return size;
+        }
+
+        private boolean isCounted(HttpExchange httpExchange) {
+            return httpExchange.getResponseBody() instanceof CountingOutputStream;
+        }
+
+        private void connectionStarted(HttpExchange httpExchange) {
+            connections.compute(httpExchange.getRemoteAddress(),
+                    new BiFunction<InetSocketAddress, ConnectionStats, ConnectionStats>() {
+                        public ConnectionStats apply(InetSocketAddress address, ConnectionStats stats) {
+                            if (stats == null) {
+                                stats = new ConnectionStats(address);
+                            }
+
+                            stats.requestStarted();
+                            return stats;
+                        }
+                    });
+
+            httpExchange.setStreams(null, new CountingOutputStream(httpExchange.getResponseBody()));
+        }
+
+        private void connectionCompleted(HttpExchange httpExchange, RequestTrace trace) {
+            InetSocketAddress address = httpExchange.getRemoteAddress();
+            ConnectionStats stats = connections.get(address);
+            if (stats == null) {
+                return;
+            }
+
+            InputStream requestBody = httpExchange.getRequestBody();
+            stats.requestCompleted(trace,
+                    requestBody instanceof RequestBodyInputStream ? ((RequestBodyInputStream) requestBody).getCount() : 0,
+                    ((CountingOutputStream) httpExchange.getResponseBody()).getCount());
+
+            //Underlying server closes connection after such exchange
+            if (CONNECTION_CLOSE.equalsIgnoreCase(httpExchange.getRequestHeaders().getFirst(CONNECTION_HEADER_NAME))
+                    || CONNECTION_CLOSE.equalsIgnoreCase(httpExchange.getResponseHeaders().getFirst(CONNECTION_HEADER_NAME))) {
+                connections.remove(address, stats);
+            }
+        }
+
+        private void completeExchange(HttpExchange httpExchange, HttpRequestContext httpRequestContext) {
+            RequestTrace trace = httpRequestContext.getTrace();
+            httpRequestContext.release();
+            httpExchange.close();
+            trace.mark(RequestTrace.COMPLETED);
+            logSlowRequest(httpExchange, trace);
+
+            if (isCounted(httpExchange)) {
+                connectionCompleted(httpExchange, trace);
+            }
+        }
+
+        public void handle(final HttpExchange httpExchange) throws IOException {
+            if (httpExchange instanceof HttpsExchange) {
+                countHttpsSession((HttpsExchange) httpExchange);
+            }
+
+            boolean warmUp = isWarmUp(httpExchange);
+            if (!warmUp) {
+                requestsCount.incrementAndGet();
+            }
+
+            RequestTrace trace = new RequestTrace(
+                    httpExchange.getRequestHeaders().getFirst(RequestTrace.TRACEPARENT_HEADER_NAME),
+                    ReceivingExecutor.getReceivedTime());
+
+            //Context is shared by admission, handler and error handler of the exchange
+            final HttpRequestContext httpRequestContext = new HttpRequestContext(httpExchange, partMemoryThreshold, trace);
+            if (connectionStatsEnabled && !warmUp) {
+                connectionStarted(httpExchange);
+            }
+
+            RequestJournal journal = requestJournal;
+            if (journal != null && !warmUp) {
+                journal.startRecording(httpExchange);
+            }
+
+            Route foundRoute = null;
+            int admission;
+            try {
+                foundRoute = findRoute(httpExchange);
+                admission = admit(foundRoute, httpExchange, httpRequestContext);
+            } catch (Exception e) {
+                try {
+                    handleException(foundRoute, httpExchange, httpRequestContext, e);
+                } finally {
+                    completeExchange(httpExchange, httpRequestContext);
+                }
+
+                return;
+            }
+
+            final Route route = foundRoute;
+            if (admission != RequestAdmission.ADMIT) {
+                try {
+                    sendError(route, httpExchange, httpRequestContext, admission, null);
+                } finally {
+                    completeExchange(httpExchange, httpRequestContext);
+                }
+
+                return;
+            }
+
+            Executor executor = route != null ? route.getExecutor() : null;
+            if (executor == null) {
+                dispatch(route, httpExchange, httpRequestContext);
+                return;
+            }
+
+            //Hand off request to executor dedicated to the route
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        dispatch(route, httpExchange, httpRequestContext);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                try {
+                    sendError(route, httpExchange, httpRequestContext, HttpURLConnection.HTTP_UNAVAILABLE, e);
+                } finally {
+                    completeExchange(httpExchange, httpRequestContext);
+                }
             }
         }
     };
 
     public DefaultHttpServer() {
-        defaultHeaders.put(SERVER_HEADER_NAME, FULL_SERVER_NAME);
+        addResponseHeader(SERVER_HEADER_NAME, FULL_SERVER_NAME);
+        setDefaultErrorResponses();
+    }
+
+    private void setDefaultErrorResponses() {
+        setErrorResponse(createErrorResponse(HttpURLConnection.HTTP_NOT_FOUND, "Not Found"));
+        setErrorResponse(createErrorResponse(HttpURLConnection.HTTP_BAD_METHOD, "Method Not Allowed"));
+        setErrorResponse(createErrorResponse(HttpURLConnection.HTTP_ENTITY_TOO_LARGE, "Payload Too Large"));
+        setErrorResponse(createErrorResponse(HttpURLConnection.HTTP_INTERNAL_ERROR, "Internal Server Error"));
+        setErrorResponse(createErrorResponse(HttpURLConnection.HTTP_UNAVAILABLE, "Service Unavailable"));
+    }
+
+    private static StaticResponseHandler createErrorResponse(int responseCode, String reason) {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put(HttpRequestContext.CONTENT_TYPE_HEADER_NAME, ERROR_CONTENT_TYPE);
+
+        String body = reason != null ? responseCode + " " + reason : String.valueOf(responseCode);
+        return new StaticResponseHandler(responseCode, headers, body.getBytes(FormParser.DEFAULT_CHARSET));
+    }
+
+    private StaticResponseHandler getErrorResponse(int responseCode) {
+        StaticResponseHandler response = errorResponses.get(responseCode);
+        if (response == null) {
+            response = generatedErrorResponses.get(responseCode);
+        }
+
+        if (response == null) {
+            response = createErrorResponse(responseCode, null);
+            generatedErrorResponses.put(responseCode, response);
+        }
+
+        return response;
+    }
+
+    private com.sun.net.httpserver.HttpServer createHttpsServer() throws IOException, GeneralSecurityException {
+        HttpsServer httpsServer = HttpsServer.create();
+        httpsServer.setHttpsConfigurator(new HttpsConfigurator(httpsConfiguration.createSSLContext()) {
+            @Override
+            public void configure(HttpsParameters params) {
+                //Called by JDK server for every new TLS connection
+                httpsConnectionsCount.incrementAndGet();
+
+                SSLParameters sslParameters = getSSLContext().getDefaultSSLParameters();
+                if (httpsConfiguration.getProtocols() != null) {
+                    sslParameters.setProtocols(httpsConfiguration.getProtocols());
+                }
+
+                if (httpsConfiguration.getCipherSuites() != null) {
+                    sslParameters.setCipherSuites(httpsConfiguration.getCipherSuites());
+                    sslParameters.setUseCipherSuitesOrder(true);
+                }
+
+                params.setSSLParameters(sslParameters);
+            }
+        });
+
+        return httpsServer;
     }
 
     private void createHttpServer() {
@@ -212,41 +826,148 @@ public final class DefaultHttpServer implements HttpServer {
             synchronized (this) {
                 if (httpServer == null) {
                     try {
-                        httpServer = com.sun.net.httpserver.HttpServer.create();
-                        httpServer.setExecutor(Executors.newFixedThreadPool(maxThreads));
+                        serverCreated = true;
+                        httpServer = httpsConfiguration != null ? createHttpsServer() : com.sun.net.httpserver.HttpServer.create();
+                        if (getMinThreads() < maxThreads) {
+                            threadPool = new AdaptiveThreadPool(getMinThreads(), maxThreads);
+                            threadPool.startSampling(getScheduler(), AdaptiveThreadPool.DEFAULT_SAMPLE_INTERVAL);
+                            httpServer.setExecutor(new ReceivingExecutor(threadPool));
+                        } else {
+                            fixedThreadPool = Executors.newFixedThreadPool(maxThreads);
+                            httpServer.setExecutor(new ReceivingExecutor(fixedThreadPool));
+                        }
                         httpServer.bind(new InetSocketAddress(host, port), 0);
+                        httpServer.createContext(PATH_DELIMITER, defaultHandler);
                     } catch (IOException e) {
                         throw new RuntimeException(e);
+                    } catch (GeneralSecurityException e) {
+                        throw new RuntimeException(e);
                     }
                 }
             }
         }
     }
 
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "anhttpserver-scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return scheduler;
+    }
+
     public String getBaseUrl() {
-        return (new StringBuilder()).append(HTTP_PREFIX).append(host).append(PORT_DELIMITER).append(port).toString();
+        return (new StringBuilder()).append(httpsConfiguration != null ? HTTPS_PREFIX : HTTP_PREFIX).append(host).append(PORT_DELIMITER).append(getPort()).toString();
     }
 
     public void start() {
         createHttpServer();
         httpServer.start();
+        started = true;
+    }
+
+    /**
+     * Send requests to started server through loopback interface
+     * so that request processing code is loaded and compiled
+     * before the first real request. Does nothing for HTTPS server.
+     * Warm up requests skip global filters and are not counted in statistics of the server
+     * and not recorded in its journal.
+     *
+     * @param requests count of requests to send
+     * @throws IllegalStateException if server is not started
+     */
+    public void warmUp(int requests) {
+        if (!started) {
+            throw new IllegalStateException("Server is not started");
+        }
+
+        if (httpsConfiguration != null) {
+            return;
+        }
+
+        warmingUp = true;
+        synchronized (defaultHost) {
+            defaultHost.addRoute(WARM_UP_PATH, new Route(new StringHandlerAdapter() {
+                @Override
+                public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                    httpRequestContext.getRequestHeaders();
+                    return httpRequestContext.getRequestURI().getPath();
+                }
+            }, Route.NO_FILTERS, Route.NO_FILTERS, defaultHost, null));
+        }
+
+        try {
+            InetAddress address = httpServer.getAddress().getAddress();
+            if (address.isAnyLocalAddress()) {
+                address = InetAddress.getLoopbackAddress();
+            }
+
+            URL url = new URL(HTTP_PREFIX + address.getHostAddress().replaceFirst("^(.*:.*)$", "[$1]")
+                    + PORT_DELIMITER + getPort() + WARM_UP_PATH);
+            for (int i = 0; i < requests; i++) {
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                connection.setConnectTimeout(WARM_UP_TIMEOUT);
+                connection.setReadTimeout(WARM_UP_TIMEOUT);
+                InputStream is = connection.getInputStream();
+                IOUtils.toByteArray(is);
+                is.close();
+            }
+        } catch (IOException e) {
+            log.debug("Warm up failed", e);
+        } finally {
+            synchronized (defaultHost) {
+                defaultHost.removeRoute(WARM_UP_PATH);
+            }
+
+            warmingUp = false;
+        }
     }
 
     public void stop() {
+        started = false;
         if (httpServer != null) {
             httpServer.stop(0);
         }
+
+        synchronized (this) {
+            stopWatching();
+            stopReplication();
+
+            if (threadPool != null) {
+                threadPool.shutdown();
+            }
+
+            if (fixedThreadPool != null) {
+                fixedThreadPool.shutdown();
+            }
+
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+                connectionStatsSweep = null;
+            }
+        }
     }
 
     public void setPort(int port) {
-        if (port <= 0) {
-            throw new IllegalArgumentException("Port should be a positive number");
+        if (port < 0) {
+            throw new IllegalArgumentException("Port should not be a negative number");
         }
 
         this.port = port;
     }
 
     public int getPort() {
+        if (port == 0 && httpServer != null) {
+            return httpServer.getAddress().getPort();
+        }
+
         return port;
     }
 
@@ -274,17 +995,876 @@ public final class DefaultHttpServer implements HttpServer {
         this.maxThreads = maxThreads;
     }
 
+    public int getMinThreads() {
+        return minThreads > 0 ? Math.min(minThreads, maxThreads) : maxThreads;
+    }
+
+    public void setMinThreads(int minThreads) {
+        if (minThreads <= 0) {
+            throw new IllegalArgumentException("minThreads should be a positive number");
+        }
+
+        this.minThreads = minThreads;
+    }
+
+    /**
+     * Return adaptive worker pool with its metrics.
+     *
+     * @return worker pool or {@code null} if server was not created yet
+     * or uses fixed count of threads
+     */
+    public AdaptiveThreadPool getThreadPool() {
+        return threadPool;
+    }
+
+    public HttpsConfiguration getHttpsConfiguration() {
+        return httpsConfiguration;
+    }
+
+    public void setHttpsConfiguration(HttpsConfiguration httpsConfiguration) {
+        this.httpsConfiguration = httpsConfiguration;
+    }
+
+    /**
+     * Return count of TLS connections accepted by server,
+     * each of them started with either full or abbreviated handshake.
+     *
+     * @return count of TLS connections
+     */
+    public long getHttpsConnectionsCount() {
+        return httpsConnectionsCount.get();
+    }
+
+    /**
+     * Return count of distinct TLS sessions seen by server,
+     * which approximates count of full handshakes.
+     * Difference with {@link #getHttpsConnectionsCount()} is count of resumed sessions
+     * and connections which were closed before first request.
+     *
+     * @return count of TLS sessions
+     */
+    public long getHttpsSessionsCount() {
+        return httpsSessionsCount.get();
+    }
+
+    public int getPartMemoryThreshold() {
+        return partMemoryThreshold;
+    }
+
+    /**
+     * Set max size of {@code multipart/form-data} part which is kept in memory,
+     * bigger parts are spilled to temporary files deleted when request is completed.
+     * Default is {@link HttpRequestContext#DEFAULT_PART_MEMORY_THRESHOLD}
+     *
+     * @param partMemoryThreshold size in bytes
+     */
+    public void setPartMemoryThreshold(int partMemoryThreshold) {
+        if (partMemoryThreshold < 0) {
+            throw new IllegalArgumentException("partMemoryThreshold should not be negative");
+        }
+
+        this.partMemoryThreshold = partMemoryThreshold;
+    }
+
+    public long getSlowRequestThreshold() {
+        return slowRequestThreshold;
+    }
+
+    public long getMaxRequestSize() {
+        return maxRequestSize;
+    }
+
+    /**
+     * Reject requests with body larger than given size with {@code 413} response.
+     * Requests with larger {@code Content-Length} are rejected before body is read,
+     * requests with chunked body fail when limit is exceeded during reading.
+     * Default is {@code -1} which means size of request body is not limited.
+     *
+     * @param maxRequestSize size in bytes or {@code -1}
+     * @see RequestAdmission
+     */
+    public void setMaxRequestSize(long maxRequestSize) {
+        this.maxRequestSize = maxRequestSize;
+    }
+
+    public int getMaxRequestHeadersSize() {
+        return maxRequestHeadersSize;
+    }
+
+    /**
+     * Reject requests with headers larger than given size with {@code 431} response.
+     * Count of request headers is limited by underlying JDK server,
+     * see {@link #setConnectionLimits(long, long, int)}.
+     * Default is {@code -1} which means size of request headers is not limited.
+     *
+     * @param maxRequestHeadersSize total size in bytes of names and values of request headers or {@code -1}
+     */
+    public void setMaxRequestHeadersSize(int maxRequestHeadersSize) {
+        this.maxRequestHeadersSize = maxRequestHeadersSize;
+    }
+
+    public long getMinRequestDataRate() {
+        return minRequestDataRate;
+    }
+
+    /**
+     * Fail requests with {@code 408} response if their body is received slower than given rate,
+     * rate is checked on every read of request body after {@link #DATA_RATE_GRACE_PERIOD}
+     * counted from the first read, so requests waiting for a busy executor are not penalized.
+     * Client which stops sending data at all is disconnected by underlying JDK server,
+     * see {@link #setConnectionLimits(long, long, int)}.
+     * Default is {@code -1} which means data rate is not checked.
+     *
+     * @param minRequestDataRate bytes per second or {@code -1}
+     */
+    public void setMinRequestDataRate(long minRequestDataRate) {
+        this.minRequestDataRate = minRequestDataRate;
+    }
+
+    /**
+     * <p>Set limits of underlying JDK server for all connections of all servers in JVM.
+     * Connection which did not send complete request or did not receive complete response
+     * in given time is closed, so slow clients do not hold server threads.
+     * Time is checked once a second and is rounded up to seconds.</p>
+     *
+     * <p>JDK server reads these limits once, so this method should be called
+     * before the first server is created. Limits can also be set by
+     * {@code sun.net.httpserver.maxReqTime}, {@code sun.net.httpserver.maxRspTime}
+     * and {@code sun.net.httpserver.maxReqHeaders} system properties.</p>
+     *
+     * @param maxRequestTime time in milliseconds to receive request headers and body
+     *  or {@code -1} to leave JDK setting unchanged, which is unlimited by default
+     * @param maxResponseTime time in milliseconds to send response, including streaming responses,
+     *  or {@code -1} to leave JDK setting unchanged, which is unlimited by default
+     * @param maxRequestHeaders max count of request headers
+     *  or {@code -1} to leave JDK setting unchanged, which is {@code 200} by default
+     * @throws IllegalStateException if server was already created
+     */
+    public static void setConnectionLimits(long maxRequestTime, long maxResponseTime, int maxRequestHeaders) {
+        if (serverCreated) {
+            throw new IllegalStateException("Connection limits should be set before the first server is created");
+        }
+
+        if (maxRequestTime >= 0) {
+            System.setProperty(MAX_REQUEST_TIME_PROPERTY, String.valueOf(toSeconds(maxRequestTime)));
+        }
+
+        if (maxResponseTime >= 0) {
+            System.setProperty(MAX_RESPONSE_TIME_PROPERTY, String.valueOf(toSeconds(maxResponseTime)));
+        }
+
+        if (maxRequestHeaders >= 0) {
+            System.setProperty(MAX_REQUEST_HEADERS_PROPERTY, String.valueOf(maxRequestHeaders));
+        }
+    }
+
+    private static long toSeconds(long millis) {
+        return Math.max(1, (millis + 999) / 1000);
+    }
+
+    public boolean isConnectionStatsEnabled() {
+        return connectionStatsEnabled;
+    }
+
+    /**
+     * Collect statistics of client connections, see {@link #getConnections()}.
+     * Default is {@code false}.
+     *
+     * @param connectionStatsEnabled {@code true} to collect statistics
+     */
+    public synchronized void setConnectionStatsEnabled(boolean connectionStatsEnabled) {
+        this.connectionStatsEnabled = connectionStatsEnabled;
+        if (connectionStatsEnabled && connectionStatsSweep == null) {
+            final long idleInterval = TimeUnit.SECONDS.toMillis(Long.getLong(IDLE_INTERVAL_PROPERTY, DEFAULT_IDLE_INTERVAL));
+            connectionStatsSweep = getScheduler().scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    for (ConnectionStats stats: connections.values()) {
+                        if (stats.getIdleTime(TimeUnit.MILLISECONDS) > idleInterval) {
+                            connections.remove(stats.getRemoteAddress(), stats);
+                        }
+                    }
+                }
+            }, CONNECTION_STATS_SWEEP_INTERVAL, CONNECTION_STATS_SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+        } else if (!connectionStatsEnabled && connectionStatsSweep != null) {
+            connectionStatsSweep.cancel(false);
+            connectionStatsSweep = null;
+            connections.clear();
+        }
+    }
+
+    /**
+     * Return statistics of open client connections
+     * if {@link #setConnectionStatsEnabled(boolean)} is enabled
+     *
+     * @return list of connections
+     */
+    public List<ConnectionStats> getConnections() {
+        return new ArrayList<ConnectionStats>(connections.values());
+    }
+
+    /**
+     * Return count of open client connections
+     * if {@link #setConnectionStatsEnabled(boolean)} is enabled
+     *
+     * @return count of connections
+     */
+    public int getOpenConnectionsCount() {
+        return connections.size();
+    }
+
+    /**
+     * Log requests which took longer than given time at WARN level
+     * together with breakdown of their time by phases, see {@link RequestTrace}.
+     * Default is {@code -1} which disables logging of slow requests.
+     *
+     * @param slowRequestThreshold time in milliseconds or {@code -1}
+     */
+    public void setSlowRequestThreshold(long slowRequestThreshold) {
+        this.slowRequestThreshold = slowRequestThreshold;
+    }
+
+    public RequestJournal getRequestJournal() {
+        return requestJournal;
+    }
+
+    /**
+     * Record requests received by server into given journal.
+     * Request is recorded before its response is sent,
+     * so it is already in journal when client receives response.
+     * Default is {@code null} which means requests are not recorded.
+     *
+     * @param requestJournal journal or {@code null}
+     */
+    public void setRequestJournal(RequestJournal requestJournal) {
+        this.requestJournal = requestJournal;
+    }
+
     public void addHandler(String path, HttpHandler httpHandler) {
+        addHandler(path, httpHandler, Route.NO_FILTERS);
+    }
+
+    public void addHandler(String path, HttpHandler httpHandler, HttpFilter... filters) {
+        addHandler(path, httpHandler, null, filters);
+    }
+
+    public void addHandler(String path, HttpHandler httpHandler, Executor executor, HttpFilter... filters) {
         createHttpServer();
-        handlers.put(path, httpHandler);
-        httpServer.createContext(path, defaultHandler);
+        checkEventStreamRoute(path, httpHandler, executor);
+        synchronized (defaultHost) {
+            defaultHost.addRoute(path, new Route(httpHandler, filters, this.filters, defaultHost, executor));
+        }
+    }
+
+    public void addHandler(String host, String path, HttpHandler httpHandler, HttpFilter... filters) {
+        createHttpServer();
+        synchronized (defaultHost) {
+            VirtualHost virtualHost = getVirtualHost(host);
+            checkEventStreamRoute(path, httpHandler, virtualHost.getExecutor());
+            virtualHost.addRoute(path, new Route(httpHandler, filters, this.filters, virtualHost, null));
+        }
+    }
+
+    private void checkEventStreamRoute(String path, HttpHandler httpHandler, Executor executor) {
+        //Every subscriber holds a thread until it disconnects
+        if (httpHandler instanceof EventStreamHandlerAdapter && executor == null && maxThreads <= 1) {
+            log.warn(String.format("Event stream %s is served by the only server thread, every subscriber blocks "
+                    + "all other requests, consider adding it with a dedicated executor", path));
+        }
+    }
+
+    /**
+     * Serve stubs defined in JSON file for all paths starting with given one,
+     * see {@link MockRoutesHandler} for format of the file.
+     * File is checked every {@link MockRoutesHandler#DEFAULT_RELOAD_INTERVAL}
+     * milliseconds and reloaded when it is changed.
+     *
+     * @param path path for which stubs will be served, usually {@code "/"}
+     * @param file JSON file with routes
+     * @return handler which serves the stubs
+     * @throws IOException if file could not be read or is not a valid routes file
+     */
+    public MockRoutesHandler addMockRoutes(String path, File file) throws IOException {
+        MockRoutesHandler handler = new MockRoutesHandler(file);
+        addHandler(path, handler);
+        watch(handler);
+
+        return handler;
+    }
+
+    private synchronized void watch(MockRoutesHandler handler) {
+        handler.startWatching(getScheduler(), MockRoutesHandler.DEFAULT_RELOAD_INTERVAL);
+        watchedMockRoutes.add(handler);
+    }
+
+    private synchronized void stopWatching() {
+        for (MockRoutesHandler handler: watchedMockRoutes) {
+            handler.stopWatching();
+        }
+
+        watchedMockRoutes.clear();
+    }
+
+    /**
+     * Replicate changes of given state to other nodes every
+     * {@link SharedState#DEFAULT_REPLICATION_INTERVAL} milliseconds while server is running
+     *
+     * @param sharedState state used by handlers of this server
+     */
+    public synchronized void addSharedState(SharedState sharedState) {
+        sharedState.startReplication(getScheduler(), SharedState.DEFAULT_REPLICATION_INTERVAL);
+        replicatedStates.add(sharedState);
+    }
+
+    private synchronized void stopReplication() {
+        for (SharedState sharedState: replicatedStates) {
+            try {
+                sharedState.stopReplication();
+            } catch (RuntimeException e) {
+                log.error(String.format("Failed to send last updates of node %s", sharedState.getNodeId()), e);
+            }
+        }
+
+        replicatedStates.clear();
+    }
+
+    public void setFallbackHandler(HttpHandler httpHandler) {
+        synchronized (defaultHost) {
+            fallbackRoute = httpHandler != null
+                    ? new Route(httpHandler, Route.NO_FILTERS, filters, defaultHost, null) : null;
+        }
+    }
+
+    public void setErrorHandler(ErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    public void setErrorResponse(StaticResponseHandler response) {
+        errorResponses.put(response.getResponseCode(null), response);
+    }
+
+    public void reset() {
+        synchronized (defaultHost) {
+            defaultHost.clearRoutes();
+            virtualHosts.clear();
+            filters = Route.NO_FILTERS;
+            fallbackRoute = null;
+        }
+
+        stopWatching();
+        stopReplication();
+        errorHandler = null;
+        errorResponses.clear();
+        generatedErrorResponses.clear();
+        setDefaultErrorResponses();
+        maxRequestSize = -1;
+        maxRequestHeadersSize = -1;
+        minRequestDataRate = -1;
+        slowRequestThreshold = -1;
+        partMemoryThreshold = HttpRequestContext.DEFAULT_PART_MEMORY_THRESHOLD;
+
+        //Cancels sweep of connection statistics and clears them
+        setConnectionStatsEnabled(false);
+        connections.clear();
+
+        requestsCount.set(0);
+        errorsCount.set(0);
+        errorsCountByCode.clear();
+        httpsConnectionsCount.set(0);
+        httpsSessionsCount.set(0);
+
+        //Default headers of new server
+        synchronized (this.defaultHeaders) {
+            this.defaultHeaders.clear();
+            addResponseHeader(SERVER_HEADER_NAME, FULL_SERVER_NAME);
+        }
+
+        RequestJournal journal = requestJournal;
+        if (journal != null) {
+            journal.clear();
+        }
+    }
+
+    /**
+     * Return count of requests received by server
+     *
+     * @return count of requests
+     */
+    public long getRequestsCount() {
+        return requestsCount.get();
+    }
+
+    /**
+     * Return count of requests which failed with error: no handler is found for the path,
+     * handler threw exception, request was rejected by executor or timed out
+     *
+     * @return count of failed requests
+     */
+    public long getErrorsCount() {
+        return errorsCount.get();
+    }
+
+    /**
+     * Return count of requests which failed with given response code
+     *
+     * @param responseCode response code
+     * @return count of failed requests
+     * @see #getErrorsCount()
+     */
+    public long getErrorsCount(int responseCode) {
+        AtomicLong count = errorsCountByCode.get(responseCode);
+        return count != null ? count.get() : 0;
+    }
+
+    public void setVirtualHostExecutor(String host, Executor executor) {
+        synchronized (defaultHost) {
+            getVirtualHost(host).setExecutor(executor);
+        }
+    }
+
+    private VirtualHost getVirtualHost(String host) {
+        String normalizedHost = VirtualHost.normalizeHost(host);
+        if (normalizedHost == null || normalizedHost.isEmpty()) {
+            throw new IllegalArgumentException("Host should be a non-empty string");
+        }
+
+        VirtualHost virtualHost = virtualHosts.get(normalizedHost);
+        if (virtualHost == null) {
+            virtualHost = new VirtualHost();
+            virtualHosts.put(normalizedHost, virtualHost);
+        }
+
+        return virtualHost;
+    }
+
+    public void addFilter(HttpFilter filter) {
+        synchronized (defaultHost) {
+            HttpFilter[] newFilters = new HttpFilter[filters.length + 1];
+            System.arraycopy(filters, 0, newFilters, 0, filters.length);
+            newFilters[filters.length] = filter;
+            filters = newFilters;
+
+            for (Route route: defaultHost.getRoutes()) {
+                route.compile(filters);
+            }
+
+            if (fallbackRoute != null) {
+                fallbackRoute.compile(filters);
+            }
+
+            for (VirtualHost virtualHost: virtualHosts.values()) {
+                for (Route route: virtualHost.getRoutes()) {
+                    route.compile(filters);
+                }
+            }
+        }
     }
 
     public void setDefaultResponseHeaders(Map<String, String> defaultHeaders) {
-        this.defaultHeaders.putAll(defaultHeaders);
+        synchronized (this.defaultHeaders) {
+            this.defaultHeaders.putAll(defaultHeaders);
+            preparedDefaultHeaders = PreparedHeaders.of(this.defaultHeaders);
+        }
     }
 
     public void addResponseHeader(String name, String value) {
-        this.defaultHeaders.put(name, value);
+        synchronized (this.defaultHeaders) {
+            this.defaultHeaders.put(name, value);
+            preparedDefaultHeaders = PreparedHeaders.of(this.defaultHeaders);
+        }
+    }
+
+    /**
+     * <p>Return configuration of this server as JSON which can be restored
+     * by {@link #restore(String)} without running configuration code again.</p>
+     *
+     * <p>Snapshot includes settings of the server, default response headers, error responses
+     * and routes served by {@link StaticResponseHandler}, {@link MockRoutesHandler}
+     * or {@link ProxyHttpHandler}. Other handlers, filters, executors and HTTPS configuration
+     * are code or secrets, so routes which use them are skipped with a warning.</p>
+     *
+     * @return JSON text
+     */
+    public String getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        snapshot.put("version", SNAPSHOT_VERSION);
+
+        Map<String, Object> settings = new LinkedHashMap<String, Object>();
+        settings.put("host", host);
+        settings.put("port", port);
+        settings.put("maxThreads", maxThreads);
+        settings.put("minThreads", minThreads);
+        settings.put("partMemoryThreshold", partMemoryThreshold);
+        settings.put("slowRequestThreshold", slowRequestThreshold);
+        settings.put("maxRequestSize", maxRequestSize);
+        settings.put("maxRequestHeadersSize", maxRequestHeadersSize);
+        settings.put("minRequestDataRate", minRequestDataRate);
+        settings.put("connectionStatsEnabled", connectionStatsEnabled);
+        snapshot.put("settings", settings);
+
+        synchronized (this.defaultHeaders) {
+            snapshot.put("defaultHeaders", new TreeMap<String, String>(this.defaultHeaders));
+        }
+
+        List<Object> responses = new ArrayList<Object>();
+        for (StaticResponseHandler response: new TreeMap<Integer, StaticResponseHandler>(errorResponses).values()) {
+            responses.add(getHandlerSnapshot(response));
+        }
+
+        snapshot.put("errorResponses", responses);
+
+        List<Object> routes = new ArrayList<Object>();
+        synchronized (defaultHost) {
+            addRoutesSnapshot(null, defaultHost, routes);
+            for (Map.Entry<String, VirtualHost> entry: new TreeMap<String, VirtualHost>(virtualHosts).entrySet()) {
+                addRoutesSnapshot(entry.getKey(), entry.getValue(), routes);
+            }
+
+            Route fallback = fallbackRoute;
+            if (fallback != null) {
+                Map<String, Object> handler = getHandlerSnapshot(fallback.getHandler());
+                if (handler != null) {
+                    snapshot.put("fallback", handler);
+                } else {
+                    log.warn("Fallback handler is not included in snapshot");
+                }
+            }
+        }
+
+        snapshot.put("routes", routes);
+        return Json.write(snapshot);
+    }
+
+    /**
+     * Save configuration of this server to file
+     *
+     * @param file file to write
+     * @throws IOException if file could not be written
+     * @see #getSnapshot()
+     */
+    public void saveSnapshot(File file) throws IOException {
+        FileUtils.writeStringToFile(file, getSnapshot(), FormParser.DEFAULT_CHARSET.name());
+    }
+
+    private void addRoutesSnapshot(String host, VirtualHost virtualHost, List<Object> routes) {
+        for (Map.Entry<String, Route> entry: new TreeMap<String, Route>(virtualHost.getRoutesByPath()).entrySet()) {
+            if (WARM_UP_PATH.equals(entry.getKey())) {
+                continue;
+            }
+
+            Route route = entry.getValue();
+            Map<String, Object> handler = route.isHandlerOnly() ? getHandlerSnapshot(route.getHandler()) : null;
+            if (handler == null) {
+                log.warn(String.format("Route %s%s is not included in snapshot", host != null ? host : "", entry.getKey()));
+                continue;
+            }
+
+            Map<String, Object> result = new LinkedHashMap<String, Object>();
+            if (host != null) {
+                result.put("host", host);
+            }
+
+            result.put("path", entry.getKey());
+            result.putAll(handler);
+            routes.add(result);
+        }
+    }
+
+    private static Map<String, Object> getHandlerSnapshot(HttpHandler handler) {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        if (handler instanceof StaticResponseHandler) {
+            StaticResponseHandler response = (StaticResponseHandler) handler;
+            result.put("type", "static");
+            result.put("status", response.getResponseCode(null));
+            result.put("headers", new LinkedHashMap<String, String>(response.getResponseHeaders(null)));
+            result.put("body", Base64.getEncoder().encodeToString(response.getBody()));
+        } else if (handler instanceof MockRoutesHandler) {
+            result.put("type", "mockRoutes");
+            result.put("file", ((MockRoutesHandler) handler).getFile().getAbsolutePath());
+        } else if (handler instanceof ProxyHttpHandler) {
+            ProxyHttpHandler proxy = (ProxyHttpHandler) handler;
+            result.put("type", "proxy");
+            result.put("upstream", proxy.getUpstream());
+            result.put("connectTimeout", proxy.getConnectTimeout());
+            result.put("readTimeout", proxy.getReadTimeout());
+        } else {
+            return null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Create server from snapshot returned by {@link #getSnapshot()}.
+     * Server is not started.
+     *
+     * @param snapshot JSON text
+     * @return configured server
+     * @throws IOException if mock routes file of a route could not be read
+     * @throws IllegalArgumentException if snapshot is not valid
+     */
+    public static DefaultHttpServer restore(String snapshot) throws IOException {
+        Object parsed = Json.parse(snapshot);
+        Map<?, ?> root = parsed instanceof Map ? (Map<?, ?>) parsed : Collections.emptyMap();
+        if (!Long.valueOf(SNAPSHOT_VERSION).equals(root.get("version"))) {
+            throw new IllegalArgumentException("Unsupported snapshot version: " + root.get("version"));
+        }
+
+        DefaultHttpServer server = new DefaultHttpServer();
+
+        //Settings are applied before routes, since adding a route creates underlying server
+        Map<?, ?> settings = getMap(root, "settings");
+        server.setHost((String) settings.get("host"));
+        server.setPort(getNumber(settings, "port").intValue());
+        server.setMaxThreads(getNumber(settings, "maxThreads").intValue());
+        if (getNumber(settings, "minThreads").intValue() > 0) {
+            server.setMinThreads(getNumber(settings, "minThreads").intValue());
+        }
+
+        server.setPartMemoryThreshold(getNumber(settings, "partMemoryThreshold").intValue());
+        server.setSlowRequestThreshold(getNumber(settings, "slowRequestThreshold").longValue());
+        server.setMaxRequestSize(getNumber(settings, "maxRequestSize").longValue());
+        server.setMaxRequestHeadersSize(getNumber(settings, "maxRequestHeadersSize").intValue());
+        server.setMinRequestDataRate(getNumber(settings, "minRequestDataRate").longValue());
+        if (Boolean.TRUE.equals(settings.get("connectionStatsEnabled"))) {
+            server.setConnectionStatsEnabled(true);
+        }
+
+        synchronized (server.defaultHeaders) {
+            server.defaultHeaders.clear();
+            server.setDefaultResponseHeaders(getStrings(root, "defaultHeaders"));
+        }
+
+        for (Object item: getList(root, "errorResponses")) {
+            HttpHandler response = item instanceof Map ? server.restoreHandler((Map<?, ?>) item) : null;
+            if (!(response instanceof StaticResponseHandler)) {
+                throw new IllegalArgumentException("Error response should be an object of \"static\" type");
+            }
+
+            server.setErrorResponse((StaticResponseHandler) response);
+        }
+
+        for (Object item: getList(root, "routes")) {
+            Map<?, ?> route = (Map<?, ?>) item;
+            HttpHandler handler = server.restoreHandler(route);
+            String path = (String) route.get("path");
+            if (route.get("host") != null) {
+                server.addHandler((String) route.get("host"), path, handler);
+            } else {
+                server.addHandler(path, handler);
+            }
+
+            if (handler instanceof MockRoutesHandler) {
+                server.watch((MockRoutesHandler) handler);
+            }
+        }
+
+        if (root.get("fallback") != null) {
+            server.setFallbackHandler(server.restoreHandler(getMap(root, "fallback")));
+        }
+
+        return server;
+    }
+
+    /**
+     * Create server from snapshot saved by {@link #saveSnapshot(File)}.
+     * Server is not started.
+     *
+     * @param file snapshot file
+     * @return configured server
+     * @throws IOException if file or mock routes file of a route could not be read
+     * @throws IllegalArgumentException if snapshot is not valid
+     */
+    public static DefaultHttpServer restore(File file) throws IOException {
+        return restore(FileUtils.readFileToString(file, FormParser.DEFAULT_CHARSET.name()));
+    }
+
+    private HttpHandler restoreHandler(Map<?, ?> handler) throws IOException {
+        Object type = handler.get("type");
+        if ("static".equals(type)) {
+            return new StaticResponseHandler(getNumber(handler, "status").intValue(), getStrings(handler, "headers"),
+                    Base64.getDecoder().decode((String) handler.get("body")));
+        } else if ("mockRoutes".equals(type)) {
+            return new MockRoutesHandler(new File((String) handler.get("file")));
+        } else if ("proxy".equals(type)) {
+            ProxyHttpHandler proxy = new ProxyHttpHandler((String) handler.get("upstream"));
+            proxy.setConnectTimeout(getNumber(handler, "connectTimeout").intValue());
+            proxy.setReadTimeout(getNumber(handler, "readTimeout").intValue());
+            return proxy;
+        }
+
+        throw new IllegalArgumentException("Unknown handler type: " + type);
+    }
+
+    private static Number getNumber(Map<?, ?> map, String key) {
+        Object value = map.get(key);
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException(String.format("\"%s\" should be a number", key));
+        }
+
+        return (Number) value;
+    }
+
+    private static Map<?, ?> getMap(Map<?, ?> map, String key) {
+        Object value = map.get(key);
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException(String.format("\"%s\" should be an object", key));
+        }
+
+        return (Map<?, ?>) value;
+    }
+
+    private static List<?> getList(Map<?, ?> map, String key) {
+        Object value = map.get(key);
+        return value instanceof List ? (List<?>) value : Collections.emptyList();
+    }
+
+    private static Map<String, String> getStrings(Map<?, ?> map, String key) {
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        for (Map.Entry<?, ?> entry: getMap(map, key).entrySet()) {
+            result.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+        }
+
+        return result;
+    }
+
+    /**
+     * Executor of underlying JDK server which remembers when request was submitted,
+     * so time spent waiting for a thread of the server is part of {@link RequestTrace}
+     */
+    private static final class ReceivingExecutor implements Executor {
+        private static final ThreadLocal<long[]> RECEIVED_TIME = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[1];
+            }
+        };
+
+        private final Executor executor;
+
+        ReceivingExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        /**
+         * Return time when request processed by current thread was submitted to server executor
+         *
+         * @return {@link System#nanoTime()} of submission or current time if request was not submitted by this executor
+         */
+        static long getReceivedTime() {
+            long receivedTime = RECEIVED_TIME.get()[0];
+            return receivedTime != 0 ? receivedTime : System.nanoTime();
+        }
+
+        public void execute(final Runnable command) {
+            final long receivedTime = System.nanoTime();
+            executor.execute(new Runnable() {
+                public void run() {
+                    long[] holder = RECEIVED_TIME.get();
+                    holder[0] = receivedTime;
+                    try {
+                        command.run();
+                    } finally {
+                        holder[0] = 0;
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Stream over request body which counts read bytes, fails request with {@code 413} response
+     * when more than given count of bytes is read and with {@code 408} response
+     * when body is received slower than given data rate.
+     * Data rate is measured from the first read, so time spent by request in executor queues
+     * is not charged to the client
+     */
+    private static final class RequestBodyInputStream extends FilterInputStream {
+        private final long limit;
+        private final long minDataRate;
+        private long startTime = -1;
+        private long count;
+
+        RequestBodyInputStream(InputStream in, long limit, long minDataRate) {
+            super(in);
+            this.limit = limit;
+            this.minDataRate = minDataRate;
+        }
+
+        private void startClock() {
+            if (startTime == -1) {
+                startTime = System.nanoTime();
+            }
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        private void count(long read) {
+            if (read > 0) {
+                count += read;
+                if (limit >= 0 && count > limit) {
+                    throw new HttpException(HttpURLConnection.HTTP_ENTITY_TOO_LARGE);
+                }
+            }
+
+            if (minDataRate > 0 && read != -1) {
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                if (elapsed > DATA_RATE_GRACE_PERIOD && count * 1000 < minDataRate * elapsed) {
+                    throw new HttpException(HttpURLConnection.HTTP_CLIENT_TIMEOUT);
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            startClock();
+            int result = super.read();
+            count(result != -1 ? 1 : -1);
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            startClock();
+            int result = super.read(b, off, len);
+            count(result);
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            startClock();
+            long result = super.skip(n);
+            count(result);
+            return result;
+        }
+    }
+
+    /**
+     * Stream over response body which counts written bytes
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
     }
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+/**
+ * <p>Builds response for request which failed with error.</p>
+ *
+ * <p>Handler of a route may implement this interface to handle errors
+ * of its own requests, otherwise error handler of the server is used,
+ * see {@link HttpServer#setErrorHandler(ErrorHandler)}.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public interface ErrorHandler {
+
+    /**
+     * Return response for failed request.
+     *
+     * @param httpRequestContext instance of {@link HttpRequestContext} -
+     *  facade for {@link com.sun.net.httpserver.HttpExchange}
+     * @param responseCode response code of the error, for example
+     *  code of {@link HttpException} or {@code 500} for other exceptions
+     * @param error exception which caused error, {@code null} if there is no exception,
+     *  for example if no handler is found for the path
+     * @return response to send or {@code null} to send pre-encoded response of the server
+     */
+    public StaticResponseHandler handleError(HttpRequestContext httpRequestContext, int responseCode, Throwable error);
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Broadcasts Server-Sent Events to all subscribed clients.</p>
+ *
+ * <p>Each event is encoded only once and the same byte array is shared
+ * by all subscribers. Last events are kept in a bounded ring buffer,
+ * so clients which reconnect with {@code Last-Event-ID} header receive
+ * events they have missed. Subscriber which does not keep up
+ * and overflows its queue is disconnected.</p>
+ *
+ * <p>
+ *     Example of usage:<br/>
+ *
+ *     <pre>
+ *         EventBroadcaster broadcaster = new EventBroadcaster();
+ *         broadcaster.startHeartbeat(15000);
+ *         server.addHandler("/events", new EventStreamHandlerAdapter(broadcaster));
+ *
+ *         broadcaster.broadcast("price", "{\"value\": 10}");
+ *     </pre>
+ * </p>
+ *
+ * @author Sergey Prilukin
+ * @see EventStreamHandlerAdapter
+ */
+public class EventBroadcaster {
+
+    public static final int DEFAULT_HISTORY_SIZE = 100;
+    public static final int DEFAULT_SUBSCRIBER_QUEUE_SIZE = 1000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(UTF_8);
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private final byte[][] history;
+    private final long[] historyIds;
+    private final int subscriberQueueSize;
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+
+    private long lastId;
+    private ScheduledExecutorService heartbeatExecutor;
+
+    /**
+     * Create broadcaster with default history and subscriber queue sizes
+     */
+    public EventBroadcaster() {
+        this(DEFAULT_HISTORY_SIZE, DEFAULT_SUBSCRIBER_QUEUE_SIZE);
+    }
+
+    /**
+     * Create broadcaster
+     *
+     * @param historySize count of last events which are kept to be resent
+     *  to reconnecting clients, zero disables resending
+     * @param subscriberQueueSize max count of events which may wait
+     *  to be sent to a single subscriber before it is disconnected
+     */
+    public EventBroadcaster(int historySize, int subscriberQueueSize) {
+        if (historySize < 0) {
+            throw new IllegalArgumentException("historySize should not be negative");
+        }
+
+        if (subscriberQueueSize <= 0) {
+            throw new IllegalArgumentException("subscriberQueueSize should be a positive number");
+        }
+
+        this.history = new byte[historySize][];
+        this.historyIds = new long[historySize];
+        this.subscriberQueueSize = subscriberQueueSize;
+    }
+
+    /**
+     * Send event without name to all subscribers
+     *
+     * @param data event data, may contain several lines
+     * @return id assigned to the event
+     */
+    public long broadcast(String data) {
+        return broadcast(null, data);
+    }
+
+    /**
+     * Send event to all subscribers
+     *
+     * @param event name of the event, may be {@code null}
+     * @param data event data, may contain several lines
+     * @return id assigned to the event
+     */
+    public long broadcast(String event, String data) {
+        synchronized (history) {
+            long id = ++lastId;
+            byte[] encoded = encode(id, event, data);
+
+            if (history.length > 0) {
+                int index = (int) (id % history.length);
+                history[index] = encoded;
+                historyIds[index] = id;
+            }
+
+            //Publish under the lock so events are queued in the same order for all subscribers
+            publish(encoded);
+            return id;
+        }
+    }
+
+    /**
+     * Start sending comment lines to all subscribers with given period.
+     * Heartbeats keep idle connections open and allow to detect disconnected clients.
+     *
+     * @param periodMillis period between heartbeats in milliseconds
+     */
+    public synchronized void startHeartbeat(long periodMillis) {
+        if (heartbeatExecutor != null) {
+            heartbeatExecutor.shutdownNow();
+        }
+
+        heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "anhttpserver-sse-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        heartbeatExecutor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                publish(HEARTBEAT);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop heartbeats and disconnect all subscribers
+     */
+    public synchronized void close() {
+        if (heartbeatExecutor != null) {
+            heartbeatExecutor.shutdownNow();
+            heartbeatExecutor = null;
+        }
+
+        for (Subscriber subscriber: subscribers) {
+            subscriber.close();
+        }
+    }
+
+    /**
+     * Return count of currently connected subscribers
+     *
+     * @return count of subscribers
+     */
+    public int getSubscribersCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Return count of subscribers which were disconnected
+     * because they were not able to receive events fast enough
+     *
+     * @return count of evicted subscribers
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /**
+     * Subscribe new client.
+     * Returned stream blocks until next event is available and ends
+     * when subscriber is closed or evicted.
+     *
+     * @param lastEventId value of {@code Last-Event-ID} request header, may be {@code null}
+     * @return stream of encoded events
+     */
+    public InputStream subscribe(String lastEventId) {
+        Subscriber subscriber = new Subscriber();
+
+        synchronized (history) {
+            long fromId = parseEventId(lastEventId);
+            if (fromId >= 0) {
+                for (long id = Math.max(fromId + 1, lastId - history.length + 1); id <= lastId; id++) {
+                    int index = (int) (id % history.length);
+                    if (historyIds[index] == id) {
+                        subscriber.queue.offer(history[index]);
+                    }
+                }
+            }
+
+            subscribers.add(subscriber);
+        }
+
+        return subscriber;
+    }
+
+    private long parseEventId(String lastEventId) {
+        if (lastEventId == null || history.length == 0) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(lastEventId.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void publish(byte[] encoded) {
+        for (Subscriber subscriber: subscribers) {
+            if (!subscriber.queue.offer(encoded)) {
+                evictedCount.incrementAndGet();
+                subscriber.close();
+            }
+        }
+    }
+
+    private static byte[] encode(long id, String event, String data) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("id: ").append(id).append('\n');
+        if (event != null) {
+            sb.append("event: ").append(event).append('\n');
+        }
+
+        for (String line: (data != null ? data : "").split("\r\n|\r|\n", -1)) {
+            sb.append("data: ").append(line).append('\n');
+        }
+
+        return sb.append('\n').toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Stream of events for a single client
+     */
+    private final class Subscriber extends InputStream {
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(subscriberQueueSize + history.length);
+        private volatile boolean closed;
+        private byte[] current = END_OF_STREAM;
+        private int position;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position == current.length) {
+                if (!nextEvent()) {
+                    return -1;
+                }
+            }
+
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        private boolean nextEvent() throws IOException {
+            try {
+                do {
+                    if (closed) {
+                        return false;
+                    }
+
+                    current = queue.take();
+                    position = 0;
+                } while (current.length == 0);
+
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                subscribers.remove(this);
+
+                //Wake up reading thread
+                queue.clear();
+                queue.offer(END_OF_STREAM);
+            }
+        }
+    }
+}
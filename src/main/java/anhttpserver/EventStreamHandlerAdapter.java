@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Implementation of {@link HttpHandler}, which
+ * subscribes every client to {@link EventBroadcaster}
+ * and streams events to it using {@code text/event-stream} content type.
+ *
+ * <p>Every connected client occupies a thread until it disconnects,
+ * so route should be added with a dedicated executor sized for
+ * expected count of subscribers, see
+ * {@link HttpServer#addHandler(String, HttpHandler, java.util.concurrent.Executor, HttpFilter...)}.
+ * Otherwise subscribers occupy server threads and with default single
+ * server thread one subscriber blocks all other requests.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class EventStreamHandlerAdapter extends SimpleHttpHandlerAdapter {
+
+    public static final String EVENT_STREAM_CONTENT_TYPE = "text/event-stream; charset=UTF-8";
+    public static final String LAST_EVENT_ID_HEADER_NAME = "Last-Event-ID";
+
+    private final EventBroadcaster broadcaster;
+
+    /**
+     * Create handler which streams events of given broadcaster
+     *
+     * @param broadcaster source of events
+     */
+    public EventStreamHandlerAdapter(EventBroadcaster broadcaster) {
+        this.broadcaster = broadcaster;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * in this implementation subscribes client to the broadcaster,
+     * resuming from {@code Last-Event-ID} request header if it is present.
+     */
+    public InputStream getResponse(HttpRequestContext httpRequestContext) throws IOException {
+        setResponseHeader("Content-Type", EVENT_STREAM_CONTENT_TYPE, httpRequestContext);
+        setResponseHeader("Cache-Control", "no-cache", httpRequestContext);
+        setResponseSize(STREAMING_RESPONSE_SIZE, httpRequestContext);
+
+        String lastEventId = null;
+        if (httpRequestContext.getRequestHeaders().containsKey(LAST_EVENT_ID_HEADER_NAME)) {
+            lastEventId = httpRequestContext.getRequestHeaders().get(LAST_EVENT_ID_HEADER_NAME).get(0);
+        }
+
+        return broadcaster.subscribe(lastEventId);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Chain of {@link HttpFilter}s which ends with {@link HttpHandler}.
+ *
+ * <p>Chain is created by server for every request of a route which has filters
+ * and acts as a handler for that request: response code, size and headers
+ * set on the chain by filters override values reported by the handler.</p>
+ *
+ * <p>Filters process response stream, so if handler is {@link AsyncHttpHandler}
+ * thread which processes request waits for its response no longer than
+ * {@link AsyncHttpHandler#getResponseTimeout(HttpRequestContext)}.
+ * Such routes should be added with a dedicated executor
+ * to keep server threads available for other requests.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public final class FilterChain implements HttpHandler {
+
+    private final HttpFilter[] filters;
+    private final HttpHandler handler;
+    private int position;
+
+    private Integer responseCode;
+    private Long responseSize;
+    private Map<String, String> responseHeaders;
+
+    FilterChain(HttpFilter[] filters, HttpHandler handler) {
+        this.filters = filters;
+        this.handler = handler;
+    }
+
+    /**
+     * Return handler at the end of this chain
+     *
+     * @return handler
+     */
+    public HttpHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Pass request to the next filter, or to the handler if there are no more filters
+     *
+     * @param httpRequestContext instance of {@link HttpRequestContext} -
+     *  facade for {@link com.sun.net.httpserver.HttpExchange}
+     * @return {@link InputStream} with response
+     * @throws IOException if exception occurs during getting response
+     */
+    public InputStream getResponse(HttpRequestContext httpRequestContext) throws IOException {
+        if (position < filters.length) {
+            return filters[position++].filter(httpRequestContext, this);
+        }
+
+        //Filters need response stream, so asynchronous handler is waited for with its timeout
+        return handler instanceof AsyncHttpHandler
+                ? AsyncHttpHandlerAdapter.awaitResponse((AsyncHttpHandler) handler, httpRequestContext)
+                : handler.getResponse(httpRequestContext);
+    }
+
+    /**
+     * Override response code reported by handler
+     *
+     * @param responseCode response code {@see java.net.HttpURLConnection}
+     */
+    public void setResponseCode(int responseCode) {
+        this.responseCode = responseCode;
+    }
+
+    /**
+     * Override response size reported by handler,
+     * for example when filter replaces response stream
+     *
+     * @param responseSize response size or {@link #STREAMING_RESPONSE_SIZE}
+     */
+    public void setResponseSize(long responseSize) {
+        this.responseSize = responseSize;
+    }
+
+    /**
+     * Set response header which overrides header with the same name set by handler
+     *
+     * @param name name of the header
+     * @param value value of the header
+     */
+    public void setResponseHeader(String name, String value) {
+        if (responseHeaders == null) {
+            responseHeaders = new HashMap<String, String>();
+        }
+
+        responseHeaders.put(name, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setResponseHeader(String name, String value, HttpRequestContext httpRequestContext) {
+        setResponseHeader(name, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Headers set by handler merged with headers set on this chain.
+     */
+    public Map<String, String> getResponseHeaders(HttpRequestContext httpRequestContext) {
+        Map<String, String> headers = handler.getResponseHeaders(httpRequestContext);
+        if (responseHeaders == null) {
+            return headers;
+        }
+
+        Map<String, String> merged = new HashMap<String, String>();
+        if (headers != null) {
+            merged.putAll(headers);
+        }
+
+        merged.putAll(responseHeaders);
+        return Collections.unmodifiableMap(merged);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getResponseCode(HttpRequestContext httpRequestContext) {
+        return responseCode != null ? responseCode : handler.getResponseCode(httpRequestContext);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getResponseSize(HttpRequestContext httpRequestContext) {
+        return responseSize != null ? responseSize : handler.getResponseSize(httpRequestContext);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void cleanContext(HttpRequestContext httpRequestContext) {
+        handler.cleanContext(httpRequestContext);
+    }
+}
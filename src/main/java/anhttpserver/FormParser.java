@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsers for query strings, cookies, {@code application/x-www-form-urlencoded}
+ * and {@code multipart/form-data} request bodies.
+ *
+ * <p>Multipart body is parsed incrementally while it is read from the
+ * request stream, so the whole body is never kept in memory.</p>
+ *
+ * @author Sergey Prilukin
+ */
+final class FormParser {
+
+    public static final String URL_ENCODED_CONTENT_TYPE = "application/x-www-form-urlencoded";
+    public static final String MULTIPART_CONTENT_TYPE = "multipart/form-data";
+    public static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+
+    //Max size of headers of a single part
+    private static final int MAX_PART_HEADERS_SIZE = 8192;
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte DASH = '-';
+
+    private FormParser() {
+    }
+
+    /**
+     * Parse url-encoded string like {@code a=1&b=2&b=3} and add values to {@code parameters}
+     *
+     * @param encoded url-encoded string, may be {@code null}
+     * @param charset charset of encoded values
+     * @param parameters map to add values to
+     */
+    static void parseUrlEncoded(String encoded, Charset charset, Map<String, List<String>> parameters) {
+        if (encoded == null || encoded.length() == 0) {
+            return;
+        }
+
+        int start = 0;
+        while (start <= encoded.length()) {
+            int end = encoded.indexOf('&', start);
+            if (end < 0) {
+                end = encoded.length();
+            }
+
+            if (end > start) {
+                int eq = encoded.indexOf('=', start);
+                if (eq < 0 || eq > end) {
+                    addValue(parameters, decode(encoded.substring(start, end), charset), "");
+                } else {
+                    addValue(parameters, decode(encoded.substring(start, eq), charset),
+                            decode(encoded.substring(eq + 1, end), charset));
+                }
+            }
+
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Parse {@code Cookie} header value like {@code a=1; b="2"} and add cookies to {@code cookies},
+     * cookies which are already in the map are not overwritten
+     *
+     * @param header value of {@code Cookie} header, may be {@code null}
+     * @param cookies map to add cookies to
+     */
+    static void parseCookies(String header, Map<String, String> cookies) {
+        if (header == null) {
+            return;
+        }
+
+        int start = 0;
+        while (start < header.length()) {
+            int end = header.indexOf(';', start);
+            if (end < 0) {
+                end = header.length();
+            }
+
+            int eq = header.indexOf('=', start);
+            if (eq > start && eq < end) {
+                String name = header.substring(start, eq).trim();
+                String value = header.substring(eq + 1, end).trim();
+                if (value.length() > 1 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+                    value = value.substring(1, value.length() - 1);
+                }
+
+                if (!name.isEmpty() && !cookies.containsKey(name)) {
+                    cookies.put(name, value);
+                }
+            }
+
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Return value of parameter of a header like {@code Content-Type} or {@code Content-Disposition},
+     * for example {@code boundary} of {@code multipart/form-data; boundary=xyz}
+     *
+     * @param header header value, may be {@code null}
+     * @param name name of the parameter
+     * @return parameter value without quotes or {@code null} if there is no such parameter
+     */
+    static String getHeaderParameter(String header, String name) {
+        if (header == null) {
+            return null;
+        }
+
+        int i = header.indexOf(';');
+        while (i >= 0 && i < header.length()) {
+            //skip delimiter and spaces
+            i++;
+            while (i < header.length() && header.charAt(i) == ' ') {
+                i++;
+            }
+
+            int eq = header.indexOf('=', i);
+            if (eq < 0) {
+                return null;
+            }
+
+            String paramName = header.substring(i, eq).trim();
+            StringBuilder value = new StringBuilder();
+            i = eq + 1;
+            if (i < header.length() && header.charAt(i) == '"') {
+                i++;
+                while (i < header.length() && header.charAt(i) != '"') {
+                    if (header.charAt(i) == '\\' && i + 1 < header.length()) {
+                        i++;
+                    }
+
+                    value.append(header.charAt(i++));
+                }
+
+                i = header.indexOf(';', i);
+            } else {
+                int end = header.indexOf(';', i);
+                value.append(header.substring(i, end < 0 ? header.length() : end).trim());
+                i = end;
+            }
+
+            if (paramName.equalsIgnoreCase(name)) {
+                return value.toString();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Return charset specified in content type or {@link #DEFAULT_CHARSET}
+     *
+     * @param contentType content type, may be {@code null}
+     * @return charset
+     */
+    static Charset getCharset(String contentType) {
+        String charset = getHeaderParameter(contentType, "charset");
+        if (charset != null) {
+            try {
+                return Charset.forName(charset);
+            } catch (IllegalArgumentException e) {
+                /* use default */
+            }
+        }
+
+        return DEFAULT_CHARSET;
+    }
+
+    /**
+     * Parse {@code multipart/form-data} body while reading it from the stream.
+     * Values of parts without file name are also added to {@code parameters}.
+     *
+     * @param body request body stream
+     * @param boundary boundary from request content type
+     * @param memoryThreshold max size of part content which is kept in memory
+     * @param charset charset of field values
+     * @param parameters map to add field values to
+     * @return all parts of the body
+     * @throws IOException if body could not be read or is malformed
+     */
+    static List<FormPart> parseMultipart(InputStream body, String boundary, int memoryThreshold,
+                                         Charset charset, Map<String, List<String>> parameters) throws IOException {
+
+        InputStream in = new BufferedInputStream(body);
+        byte[] delimiter = ("\r\n--" + boundary).getBytes("ISO-8859-1");
+        int[] failure = failureFunction(delimiter);
+        List<FormPart> parts = new ArrayList<FormPart>();
+
+        //Skip preamble, first delimiter may be not preceded by CRLF
+        if (!readUntilDelimiter(in, null, delimiter, failure, 2)) {
+            throw new IOException("Multipart boundary not found");
+        }
+
+        try {
+            while (true) {
+                int first = in.read();
+                int second = in.read();
+                if (first == DASH && second == DASH) {
+                    return parts;
+                } else if (first != CR || second != LF) {
+                    throw new IOException("Malformed multipart boundary");
+                }
+
+                String disposition = null;
+                String contentType = null;
+                int headersSize = 0;
+                String line;
+                while ((line = readLine(in, charset)).length() > 0) {
+                    headersSize += line.length();
+                    if (headersSize > MAX_PART_HEADERS_SIZE) {
+                        throw new IOException("Multipart headers are too large");
+                    }
+
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        String name = line.substring(0, colon).trim();
+                        String value = line.substring(colon + 1).trim();
+                        if ("Content-Disposition".equalsIgnoreCase(name)) {
+                            disposition = value;
+                        } else if ("Content-Type".equalsIgnoreCase(name)) {
+                            contentType = value;
+                        }
+                    }
+                }
+
+                FormPart part = new FormPart(getHeaderParameter(disposition, "name"),
+                        getHeaderParameter(disposition, "filename"), contentType, memoryThreshold);
+                parts.add(part);
+
+                if (!readUntilDelimiter(in, part, delimiter, failure, 0)) {
+                    throw new IOException("Unexpected end of multipart body");
+                }
+
+                part.finish();
+
+                if (part.getFileName() == null && part.getName() != null) {
+                    Charset partCharset = getHeaderParameter(contentType, "charset") != null
+                            ? getCharset(contentType) : charset;
+                    addValue(parameters, part.getName(), part.getString(partCharset));
+                }
+            }
+        } catch (IOException e) {
+            for (FormPart part: parts) {
+                part.delete();
+            }
+
+            throw e;
+        }
+    }
+
+    static void addValue(Map<String, List<String>> parameters, String name, String value) {
+        List<String> values = parameters.get(name);
+        if (values == null) {
+            values = new ArrayList<String>(1);
+            parameters.put(name, values);
+        }
+
+        values.add(value);
+    }
+
+    private static String decode(String value, Charset charset) {
+        try {
+            return URLDecoder.decode(value, charset.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalArgumentException e) {
+            //malformed escape sequence, keep value as is
+            return value;
+        }
+    }
+
+    /**
+     * Copy bytes from {@code in} to {@code sink} until delimiter is found.
+     * Knuth-Morris-Pratt matching is used, so every byte is examined only once.
+     *
+     * @return {@code true} if delimiter was found, {@code false} if stream has ended
+     */
+    private static boolean readUntilDelimiter(InputStream in, FormPart sink, byte[] delimiter,
+                                              int[] failure, int matched) throws IOException {
+        int j = matched;
+        int b;
+        while ((b = in.read()) != -1) {
+            while (j > 0 && b != (delimiter[j] & 0xff)) {
+                int k = failure[j - 1];
+                if (sink != null) {
+                    sink.write(delimiter, 0, j - k);
+                }
+
+                j = k;
+            }
+
+            if (b == (delimiter[j] & 0xff)) {
+                if (++j == delimiter.length) {
+                    return true;
+                }
+            } else if (sink != null) {
+                sink.write(b);
+            }
+        }
+
+        return false;
+    }
+
+    private static int[] failureFunction(byte[] pattern) {
+        int[] failure = new int[pattern.length];
+        int k = 0;
+        for (int i = 1; i < pattern.length; i++) {
+            while (k > 0 && pattern[i] != pattern[k]) {
+                k = failure[k - 1];
+            }
+
+            if (pattern[i] == pattern[k]) {
+                k++;
+            }
+
+            failure[i] = k;
+        }
+
+        return failure;
+    }
+
+    private static String readLine(InputStream in, Charset charset) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != LF) {
+            if (line.size() > MAX_PART_HEADERS_SIZE) {
+                throw new IOException("Multipart headers are too large");
+            }
+
+            line.write(b);
+        }
+
+        if (b == -1) {
+            throw new IOException("Unexpected end of multipart body");
+        }
+
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == CR ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, charset);
+    }
+}
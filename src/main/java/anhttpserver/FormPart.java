@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Single part of {@code multipart/form-data} request body.
+ *
+ * <p>Content of the part is kept in memory until it exceeds
+ * threshold passed to the parser, bigger parts are spilled
+ * to a temporary file which is deleted when request is completed.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public final class FormPart {
+
+    private static final String TEMP_FILE_PREFIX = "anhttpserver-part-";
+
+    private final String name;
+    private final String fileName;
+    private final String contentType;
+    private final int memoryThreshold;
+
+    private ByteArrayOutputStream memoryContent = new ByteArrayOutputStream();
+    private File file;
+    private OutputStream out;
+    private long size;
+
+    FormPart(String name, String fileName, String contentType, int memoryThreshold) {
+        this.name = name;
+        this.fileName = fileName;
+        this.contentType = contentType;
+        this.memoryThreshold = memoryThreshold;
+        this.out = memoryContent;
+    }
+
+    /**
+     * Return name of the form field
+     *
+     * @return name of the form field
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return name of uploaded file
+     *
+     * @return file name or {@code null} if part is not a file
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Return content type of the part
+     *
+     * @return content type or {@code null} if it was not specified
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Return size of the part content
+     *
+     * @return size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Return {@code true} if content of the part was not spilled to disk
+     *
+     * @return whether content is kept in memory
+     */
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * Return new stream with content of the part
+     *
+     * @return content of the part
+     * @throws IOException if spilled content can not be read
+     */
+    public InputStream getInputStream() throws IOException {
+        return file == null ? new ByteArrayInputStream(memoryContent.toByteArray()) : new FileInputStream(file);
+    }
+
+    /**
+     * Return content of the part as a string
+     *
+     * @param charset charset to decode content with
+     * @return content of the part
+     * @throws IOException if spilled content can not be read
+     */
+    public String getString(Charset charset) throws IOException {
+        InputStream is = getInputStream();
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream((int) size);
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+
+            return new String(content.toByteArray(), charset);
+        } finally {
+            is.close();
+        }
+    }
+
+    void write(int b) throws IOException {
+        if (file == null && size >= memoryThreshold) {
+            spill();
+        }
+
+        out.write(b);
+        size++;
+    }
+
+    void write(byte[] b, int off, int len) throws IOException {
+        if (file == null && size + len > memoryThreshold) {
+            spill();
+        }
+
+        out.write(b, off, len);
+        size += len;
+    }
+
+    void finish() throws IOException {
+        if (file != null) {
+            out.close();
+        }
+    }
+
+    /**
+     * Delete temporary file if content was spilled to disk
+     */
+    void delete() {
+        if (file != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                /* ignore */
+            }
+
+            file.delete();
+        }
+    }
+
+    private void spill() throws IOException {
+        file = File.createTempFile(TEMP_FILE_PREFIX, null);
+        out = new BufferedOutputStream(new FileOutputStream(file));
+        memoryContent.writeTo(out);
+        memoryContent = null;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+/**
+ * <p>Exception which handler may throw to finish request with given
+ * response code, for example {@code throw new HttpException(405)}.
+ * Response is built by {@link ErrorHandler} or taken from
+ * pre-encoded error responses of the server.</p>
+ *
+ * <p>Exception does not capture stack trace, so it is as cheap
+ * as returning error response directly.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class HttpException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int responseCode;
+
+    public HttpException(int responseCode) {
+        this(responseCode, null);
+    }
+
+    public HttpException(int responseCode, String message) {
+        super(message != null ? message : String.valueOf(responseCode), null, false, false);
+        this.responseCode = responseCode;
+    }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <p>Filter which is invoked around {@link HttpHandler#getResponse(HttpRequestContext)}.
+ * Filters may be added for all routes with {@link HttpServer#addFilter(HttpFilter)}
+ * or for a single route with {@link HttpServer#addHandler(String, HttpHandler, HttpFilter...)}.</p>
+ *
+ * <p>
+ *     Example of usage:<br/>
+ *
+ *     <pre>
+ *         server.addFilter(new HttpFilter() {
+ *             public InputStream filter(HttpRequestContext httpRequestContext, FilterChain chain) throws IOException {
+ *                 if (httpRequestContext.getRequestHeaders().get("Authorization") == null) {
+ *                     chain.setResponseCode(HttpURLConnection.HTTP_UNAUTHORIZED);
+ *                     return null;
+ *                 }
+ *
+ *                 chain.setResponseHeader("Access-Control-Allow-Origin", "*");
+ *                 return chain.getResponse(httpRequestContext);
+ *             }
+ *         });
+ *     </pre>
+ * </p>
+ *
+ * @author Sergey Prilukin
+ */
+public interface HttpFilter {
+
+    /**
+     * Process request. Implementations should call {@link FilterChain#getResponse(HttpRequestContext)}
+     * to pass request to next filter or to handler, or return response without calling it.
+     *
+     * @param httpRequestContext instance of {@link HttpRequestContext} -
+     *  facade for {@link com.sun.net.httpserver.HttpExchange}
+     * @param chain rest of the chain, also allows to override response code, size and headers
+     * @return {@link InputStream} with response
+     * @throws IOException if exception occurs during getting response
+     */
+    public InputStream filter(HttpRequestContext httpRequestContext, FilterChain chain) throws IOException;
+}
@@ -72,6 +72,19 @@ public interface HttpHandler {
      */
     public static final String RESPONSE_HEADERS_ATTRIBUTE_KEY = "anhttpserver.response.headers";
 
+    /**
+     * Key for which server will search to get response headers with several values,
+     * like {@code Set-Cookie}, every value is sent as a separate header
+     */
+    public static final String RESPONSE_MULTI_VALUE_HEADERS_ATTRIBUTE_KEY = "anhttpserver.response.multivalue.headers";
+
+    /**
+     * Response size which tells server that response length is not known in advance.
+     * Such response is sent using chunked encoding and flushed to client
+     * as soon as data is available, so it may be used for long-living streams.
+     */
+    public static final long STREAMING_RESPONSE_SIZE = -1L;
+
     /**
      * Return unmodifiable collection of response headers
      *
@@ -107,13 +120,13 @@ public interface HttpHandler {
      *
      * @param httpRequestContext instance of {@link HttpRequestContext} -
      *  facade for {@link com.sun.net.httpserver.HttpExchange}
-     * @return response size
+     * @return response size or {@link #STREAMING_RESPONSE_SIZE} for streaming response
      */
     public long getResponseSize(HttpRequestContext httpRequestContext);
 
     /**
-     * Somewhy in {@link com.sun.net.httpserver.HttpExchange} context attibutes
-     * are not cleaned with each request, so need to clean them manually
+     * Clean attributes which handler stored in request context.
+     * Called by server before handler is asked for response.
      *
      * @param httpRequestContext instance of {@link HttpRequestContext} -
      *  facade for {@link com.sun.net.httpserver.HttpExchange}
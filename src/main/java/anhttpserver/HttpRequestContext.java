@@ -25,10 +25,18 @@ package anhttpserver;
 import com.sun.net.httpserver.HttpExchange;
 import org.apache.commons.io.IOUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Encapsulates {@link HttpExchange}
@@ -37,40 +45,101 @@ import java.util.Map;
  * @author Sergey Prilukin
  */
 public final class HttpRequestContext {
+
+    /**
+     * Default max size of multipart part which is kept in memory,
+     * bigger parts are spilled to temporary files
+     */
+    public static final int DEFAULT_PART_MEMORY_THRESHOLD = 64 * 1024;
+
+    public static final String CONTENT_TYPE_HEADER_NAME = "Content-Type";
+    public static final String CONTENT_LENGTH_HEADER_NAME = "Content-Length";
+    public static final String COOKIE_HEADER_NAME = "Cookie";
+
+    private static final long CONTENT_LENGTH_NOT_PARSED = -2;
+
     private HttpExchange httpExchange;
+    private int partMemoryThreshold;
+    private final RequestTrace trace;
+
+    //Request may be completed by a thread other than the one which started it
+    private final Map<String, Object> attributes = new HashMap<String, Object>(4);
+
+    //Request body is read lazily, only when handler asks for it
     private byte[] requestBody;
+    private boolean requestBodyConsumed;
+
+    //Parsed parameters are cached for the lifetime of the request
+    private Map<String, List<String>> queryParameters;
+    private Map<String, List<String>> parameters;
+    private List<FormPart> parts;
+
+    //Parsed headers and cookies are cached for the lifetime of the request
+    private Map<String, String> headers;
+    private Map<String, String> cookies;
+    private long contentLength = CONTENT_LENGTH_NOT_PARSED;
+    private String contentType;
 
     /**
      * Create wrapper from passed {@code httpExcahnge} param
      * @param httpExcahnge instance if {@link HttpExchange} for current request
      */
     public HttpRequestContext(HttpExchange httpExcahnge) {
+        this(httpExcahnge, DEFAULT_PART_MEMORY_THRESHOLD);
+    }
+
+    /**
+     * Create wrapper from passed {@code httpExcahnge} param
+     * @param httpExcahnge instance if {@link HttpExchange} for current request
+     * @param partMemoryThreshold max size of multipart part which is kept in memory
+     */
+    public HttpRequestContext(HttpExchange httpExcahnge, int partMemoryThreshold) {
+        this(httpExcahnge, partMemoryThreshold,
+                new RequestTrace(httpExcahnge.getRequestHeaders().getFirst(RequestTrace.TRACEPARENT_HEADER_NAME)));
+    }
+
+    HttpRequestContext(HttpExchange httpExcahnge, int partMemoryThreshold, RequestTrace trace) {
         this.httpExchange = httpExcahnge;
-        try {
-            this.requestBody = IOUtils.toByteArray(httpExcahnge.getRequestBody());
-        } catch (IOException e) {
-            /* ignore */
-        }
+        this.partMemoryThreshold = partMemoryThreshold;
+        this.trace = trace;
     }
 
     /**
-     * Return request attribute for specified key
+     * Return phase timestamps and trace context of the request
+     *
+     * @return trace of the request
+     */
+    public RequestTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * Return request attribute for specified key.
+     * Attributes are kept per request and are not shared between requests.
      *
      * @param key key
      * @return attribute value for specified key
      */
     public Object getAttribute(String key) {
-        return httpExchange.getAttribute(key);
+        synchronized (attributes) {
+            return attributes.get(key);
+        }
     }
 
     /**
      * Sets a request attribute for specified key
      *
      * @param key attribute key
-     * @param value attribute value
+     * @param value attribute value, {@code null} removes the attribute
      */
     public void setAttribute(String key, Object value) {
-        httpExchange.setAttribute(key, value);
+        synchronized (attributes) {
+            if (value == null) {
+                attributes.remove(key);
+            } else {
+                attributes.put(key, value);
+            }
+        }
     }
 
     /**
@@ -82,6 +151,102 @@ public final class HttpRequestContext {
         return httpExchange.getRequestHeaders();
     }
 
+    /**
+     * Return first value of request header. Name is case-insensitive,
+     * lookup does not allocate after headers are indexed on first call.
+     *
+     * @param name name of the header
+     * @return value of the header or {@code null} if there is no such header
+     */
+    public String getHeader(String name) {
+        if (headers == null) {
+            Map<String, String> result = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            for (Map.Entry<String, List<String>> entry: httpExchange.getRequestHeaders().entrySet()) {
+                if (entry.getKey() != null && !entry.getValue().isEmpty()) {
+                    result.put(entry.getKey(), entry.getValue().get(0));
+                }
+            }
+
+            headers = result;
+        }
+
+        return headers.get(name);
+    }
+
+    /**
+     * Return value of {@code Content-Length} request header.
+     *
+     * @return length of request body or {@code -1} if it is unknown
+     */
+    public long getContentLength() {
+        if (contentLength == CONTENT_LENGTH_NOT_PARSED) {
+            String value = getHeader(CONTENT_LENGTH_HEADER_NAME);
+            long result = -1;
+            if (value != null) {
+                try {
+                    result = Long.parseLong(value.trim());
+                } catch (NumberFormatException e) {
+                    //invalid value means unknown length
+                }
+            }
+
+            contentLength = result >= 0 ? result : -1;
+        }
+
+        return contentLength;
+    }
+
+    /**
+     * Return media type from {@code Content-Type} request header
+     * in lower case and without parameters, for example {@code "text/plain"}.
+     *
+     * @return media type or {@code null} if there is no such header
+     */
+    public String getContentType() {
+        if (contentType == null) {
+            String value = getHeader(CONTENT_TYPE_HEADER_NAME);
+            if (value != null) {
+                int parametersStart = value.indexOf(';');
+                contentType = (parametersStart > -1 ? value.substring(0, parametersStart) : value).trim().toLowerCase();
+            }
+        }
+
+        return contentType;
+    }
+
+    /**
+     * Return value of request cookie.
+     *
+     * @param name name of the cookie
+     * @return value of the cookie or {@code null} if there is no such cookie
+     */
+    public String getCookie(String name) {
+        return getCookies().get(name);
+    }
+
+    /**
+     * Return all request cookies. {@code Cookie} headers are parsed on first call
+     * and result is cached for the lifetime of the request.
+     * If cookie is sent several times the first value is used.
+     *
+     * @return unmodifiable map where key is cookie name and value is its value
+     */
+    public Map<String, String> getCookies() {
+        if (cookies == null) {
+            Map<String, String> result = new LinkedHashMap<String, String>();
+            List<String> values = httpExchange.getRequestHeaders().get(COOKIE_HEADER_NAME);
+            if (values != null) {
+                for (String value: values) {
+                    FormParser.parseCookies(value, result);
+                }
+            }
+
+            cookies = Collections.unmodifiableMap(result);
+        }
+
+        return cookies;
+    }
+
     /**
      * Return HTTP method of the request,
      * for example "GET", "POST", etc.
@@ -94,13 +259,213 @@ public final class HttpRequestContext {
 
     /**
      * Return byte array of request body.
+     * Body is read on first call and cached.
+     *
+     * <p>If body was already consumed by {@link #getRequestBodyAsStream()}
+     * or by parsing of {@code multipart/form-data} parameters
+     * empty array is returned.</p>
      *
      * @return byte array of request body
      */
     public byte[] getRequestBody() {
+        if (requestBody == null) {
+            if (requestBodyConsumed) {
+                requestBody = new byte[0];
+            } else {
+                requestBodyConsumed = true;
+                try {
+                    requestBody = IOUtils.toByteArray(httpExchange.getRequestBody());
+                } catch (IOException e) {
+                    requestBody = new byte[0];
+                }
+            }
+        }
+
         return requestBody;
     }
 
+    /**
+     * Return request body as a stream without buffering it in memory.
+     * If body was already read by {@link #getRequestBody()} stream over cached body is returned.
+     *
+     * @return stream of request body
+     */
+    public InputStream getRequestBodyAsStream() {
+        if (requestBody != null) {
+            return new ByteArrayInputStream(requestBody);
+        }
+
+        requestBodyConsumed = true;
+        return httpExchange.getRequestBody();
+    }
+
+    /**
+     * Return first value of request parameter. Parameters are taken from
+     * query string and from {@code application/x-www-form-urlencoded}
+     * or {@code multipart/form-data} request body.
+     *
+     * @param name name of the parameter
+     * @return first value of the parameter or {@code null} if there is no such parameter
+     * @throws IOException if request body could not be parsed
+     */
+    public String getParameter(String name) throws IOException {
+        List<String> values = getParameters().get(name);
+        return values != null ? values.get(0) : null;
+    }
+
+    /**
+     * Return all values of request parameter.
+     *
+     * @param name name of the parameter
+     * @return values of the parameter or empty list if there is no such parameter
+     * @throws IOException if request body could not be parsed
+     * @see #getParameter(String)
+     */
+    public List<String> getParameterValues(String name) throws IOException {
+        List<String> values = getParameters().get(name);
+        return values != null ? values : Collections.<String>emptyList();
+    }
+
+    /**
+     * Return all request parameters. Body is parsed on first call,
+     * result is cached for the lifetime of the request.
+     * Parameters of body which was consumed by {@link #getRequestBodyAsStream()} are not available.
+     *
+     * @return unmodifiable map where key is parameter name and value is a list of its values
+     * @throws IOException if request body could not be parsed
+     * @see #getParameter(String)
+     */
+    public Map<String, List<String>> getParameters() throws IOException {
+        if (parameters == null) {
+            Map<String, List<String>> result = new LinkedHashMap<String, List<String>>();
+            for (Map.Entry<String, List<String>> entry: getQueryParameters().entrySet()) {
+                result.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+            }
+
+            parts = Collections.emptyList();
+
+            String contentType = getHeader(CONTENT_TYPE_HEADER_NAME);
+            if (contentType != null) {
+                String mimeType = getContentType();
+                Charset charset = FormParser.getCharset(contentType);
+                if (mimeType.startsWith(FormParser.URL_ENCODED_CONTENT_TYPE)) {
+                    FormParser.parseUrlEncoded(new String(getRequestBody(), "ISO-8859-1"), charset, result);
+                } else if (mimeType.startsWith(FormParser.MULTIPART_CONTENT_TYPE)
+                        && (!requestBodyConsumed || (requestBody != null && requestBody.length > 0))) {
+                    //Body cached by getRequestBody() is parsed from memory
+                    String boundary = FormParser.getHeaderParameter(contentType, "boundary");
+                    if (boundary == null) {
+                        throw new IOException("Multipart boundary is not specified");
+                    }
+
+                    parts = Collections.unmodifiableList(FormParser.parseMultipart(
+                            getRequestBodyAsStream(), boundary, partMemoryThreshold, charset, result));
+                }
+            }
+
+            parameters = Collections.unmodifiableMap(result);
+        }
+
+        return parameters;
+    }
+
+    /**
+     * Return first value of query string parameter.
+     *
+     * @param name name of the parameter
+     * @return first value of the parameter or {@code null} if there is no such parameter
+     */
+    public String getQueryParam(String name) {
+        List<String> values = getQueryParameters().get(name);
+        return values != null ? values.get(0) : null;
+    }
+
+    /**
+     * Return parameters of the query string only. Query is parsed on first call
+     * and result is cached for the lifetime of the request.
+     *
+     * @return unmodifiable map where key is parameter name and value is a list of its values
+     */
+    public Map<String, List<String>> getQueryParameters() {
+        if (queryParameters == null) {
+            Map<String, List<String>> result = new LinkedHashMap<String, List<String>>();
+            FormParser.parseUrlEncoded(httpExchange.getRequestURI().getRawQuery(), FormParser.DEFAULT_CHARSET, result);
+            queryParameters = Collections.unmodifiableMap(result);
+        }
+
+        return queryParameters;
+    }
+
+    /**
+     * Return parts of {@code multipart/form-data} request body.
+     *
+     * @return list of parts or empty list if request is not a multipart one
+     * @throws IOException if request body could not be parsed
+     */
+    public List<FormPart> getParts() throws IOException {
+        getParameters();
+        return parts;
+    }
+
+    /**
+     * Return first part of {@code multipart/form-data} request body with given name.
+     *
+     * @param name name of the form field
+     * @return part or {@code null} if there is no such part
+     * @throws IOException if request body could not be parsed
+     */
+    public FormPart getPart(String name) throws IOException {
+        for (FormPart part: getParts()) {
+            if (name.equals(part.getName())) {
+                return part;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Return response headers with several values kept in
+     * {@link HttpHandler#RESPONSE_MULTI_VALUE_HEADERS_ATTRIBUTE_KEY} attribute
+     *
+     * @param create whether headers should be created if there are none
+     * @return headers or {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, List<String>> getMultiValueResponseHeaders(boolean create) {
+        synchronized (attributes) {
+            Map<String, List<String>> headers = (Map<String, List<String>>) attributes
+                    .get(HttpHandler.RESPONSE_MULTI_VALUE_HEADERS_ATTRIBUTE_KEY);
+            if (headers == null && create) {
+                headers = new LinkedHashMap<String, List<String>>();
+                attributes.put(HttpHandler.RESPONSE_MULTI_VALUE_HEADERS_ATTRIBUTE_KEY, headers);
+            }
+
+            return headers;
+        }
+    }
+
+    /**
+     * Release resources allocated for the request,
+     * called by server when request is completed.
+     */
+    void release() {
+        if (parts != null) {
+            for (FormPart part: parts) {
+                part.delete();
+            }
+        }
+    }
+
+    /**
+     * Return IP address of the client
+     *
+     * @return IP address
+     */
+    public String getRemoteAddress() {
+        return httpExchange.getRemoteAddress().getAddress().getHostAddress();
+    }
+
     /**
      * Return {@link URI} of request
      * @return {@link URI} of request
@@ -23,6 +23,7 @@
 package anhttpserver;
 
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * <p>
@@ -34,6 +35,11 @@ import java.util.Map;
  *     Useful for functional testing where we need to emulate a web server
  * </p>
  *
+ * <p>
+ *     Only HTTP/1.0 and HTTP/1.1 are supported by the underlying server,
+ *     HTTP/2 and WebSocket upgrade requests are answered over HTTP/1.1.
+ * </p>
+ *
  *
  *
  * @author Sergey Prilukin
@@ -52,7 +58,8 @@ public interface HttpServer {
 
     /**
      * <p>Set port which HTTP server will listen.
-     * Default is {@code 8000}.</p>
+     * Default is {@code 8000}. {@code 0} means any free port,
+     * which is returned by {@link #getPort()} once server is created.</p>
      *
      * <p>Will take effect only BEFORE first call to
      * {@link #start()} or {@link #addHandler(String, HttpHandler)}</p>
@@ -65,6 +72,7 @@ public interface HttpServer {
     /**
      * Return current port.
      * {@code 8000} by default.
+     * If port was set to {@code 0} return port actually chosen after server is created.
      *
      * @return current port
      */
@@ -106,6 +114,45 @@ public interface HttpServer {
      */
     public void setMaxThreads(int maxThreads);
 
+    /**
+     * Return current value of minimum threads count.
+     *
+     * @return min threads count
+     */
+    public int getMinThreads();
+
+    /**
+     * Set min threads count for server.
+     * Default is max threads count which means fixed count of threads.
+     * If min threads count is less than max threads count,
+     * server uses {@link AdaptiveThreadPool} which grows and shrinks
+     * between them depending on queue wait time and utilization.
+     *
+     * <p>Will take effect only BEFORE first call to
+     * {@link #start()} or {@link #addHandler(String, HttpHandler)}</p>
+     *
+     * @param minThreads min count of threads
+     */
+    public void setMinThreads(int minThreads);
+
+    /**
+     * Return HTTPS settings.
+     *
+     * @return HTTPS settings or {@code null} if server uses plain HTTP
+     */
+    public HttpsConfiguration getHttpsConfiguration();
+
+    /**
+     * Make server listen for HTTPS instead of plain HTTP.
+     * Default is {@code null} which means plain HTTP.
+     *
+     * <p>Will take effect only BEFORE first call to
+     * {@link #start()} or {@link #addHandler(String, HttpHandler)}</p>
+     *
+     * @param httpsConfiguration HTTPS settings
+     */
+    public void setHttpsConfiguration(HttpsConfiguration httpsConfiguration);
+
     /**
      * For given {@code path} set instance of {@link HttpHandler}
      * which will handle all requests for given path.
@@ -123,6 +170,71 @@ public interface HttpServer {
      */
     public void addHandler(String path, HttpHandler httpHandler);
 
+    /**
+     * Same as {@link #addHandler(String, HttpHandler)} but
+     * requests for given path will be passed through {@code filters}
+     * in specified order, after filters added with {@link #addFilter(HttpFilter)}.
+     * Filters are compiled for the route once, so route without filters
+     * has no additional per-request cost.
+     *
+     * @param path path for which handler will be set.
+     * @param httpHandler instance of {@link HttpHandler} which will handle
+     * all requests for given path
+     * @param filters filters for given path
+     */
+    public void addHandler(String path, HttpHandler httpHandler, HttpFilter... filters);
+
+    /**
+     * Same as {@link #addHandler(String, HttpHandler, HttpFilter...)} but
+     * requests for given path are processed by {@code executor} instead of server threads.
+     * The same executor, for example {@link Bulkhead}, may be shared by a group of paths.
+     * Requests rejected by executor receive {@code 503 Service Unavailable}.
+     *
+     * @param path path for which handler will be set.
+     * @param httpHandler instance of {@link HttpHandler} which will handle
+     * all requests for given path
+     * @param executor executor for requests of given path, {@code null} to use server threads
+     * @param filters filters for given path
+     */
+    public void addHandler(String path, HttpHandler httpHandler, Executor executor, HttpFilter... filters);
+
+    /**
+     * Same as {@link #addHandler(String, HttpHandler, HttpFilter...)} but
+     * handler is used only for requests which {@code Host} header
+     * matches {@code host}, port in header is ignored.
+     * Such requests are served by handlers of the host first and
+     * fall back to handlers added without host if there is no handler for path.
+     *
+     * @param host host name, for example {@code api.example.com}
+     * @param path path for which handler will be set.
+     * @param httpHandler instance of {@link HttpHandler} which will handle
+     * all requests for given host and path
+     * @param filters filters for given host and path
+     */
+    public void addHandler(String host, String path, HttpHandler httpHandler, HttpFilter... filters);
+
+    /**
+     * Set executor which will process requests of specified host
+     * instead of server threads, so hosts do not compete for threads.
+     * Requests rejected by executor receive {@code 503 Service Unavailable}.
+     *
+     * @param host host name
+     * @param executor executor for requests of the host, {@code null} to use server threads
+     */
+    public void setVirtualHostExecutor(String host, Executor executor);
+
+    /**
+     * Add filter which will be applied to requests of all paths,
+     * before filters of particular path.
+     *
+     * <p>Filters wrap {@link HttpHandler#getResponse(HttpRequestContext)},
+     * so for {@link AsyncHttpHandler} filtered request waits for response
+     * on server thread.</p>
+     *
+     * @param filter filter to add
+     */
+    public void addFilter(HttpFilter filter);
+
     /**
      * Set response headers which will always be sent for all requests.
      * Example of such header is a {@code Server} header which will be sent
@@ -143,10 +255,47 @@ public interface HttpServer {
      */
     public void addResponseHeader(String name, String value);
 
+    /**
+     * Set handler for requests which do not match any path,
+     * for example {@link ProxyHttpHandler} which passes them to a real server.
+     * Default is {@code null} which means {@code 404 Not Found} response.
+     *
+     * @param httpHandler handler or {@code null}
+     */
+    public void setFallbackHandler(HttpHandler httpHandler);
+
+    /**
+     * Set handler which builds responses for failed requests of routes
+     * whose handlers do not implement {@link ErrorHandler} themselves.
+     * Default is {@code null} which means pre-encoded error responses are sent.
+     *
+     * @param errorHandler error handler or {@code null}
+     */
+    public void setErrorHandler(ErrorHandler errorHandler);
+
+    /**
+     * Replace pre-encoded response sent for requests failed with response code of given response.
+     * By default plain text responses for {@code 404}, {@code 405}, {@code 413},
+     * {@code 500} and {@code 503} are prepared, responses for other codes are prepared on first use.
+     *
+     * @param response response for failed requests
+     */
+    public void setErrorResponse(StaticResponseHandler response);
+
+    /**
+     * Remove all handlers, filters, virtual hosts, fallback and error handlers, reset default response headers,
+     * limits of request size and thresholds, reset counters and connection statistics,
+     * clear journal of requests if it is set.
+     * Server keeps listening, so it can be reused by the next test
+     * without binding socket and creating threads again.
+     */
+    public void reset();
+
     /**
      * Return current base url.
      * By default return follwing (if port was not changed): <br />
-     * <code>http://localhost:8000</code>
+     * <code>http://localhost:8000</code><br />
+     * or <code>https://localhost:8000</code> if HTTPS is configured
      *
      * @return current base url
      */
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * <p>Pool of started and warmed up servers listening on free ports,
+ * intended for test suites which need a fresh server for every test.</p>
+ *
+ * <p>
+ *     Example of usage:<br/>
+ *
+ *     <pre>
+ *         private static final HttpServerPool pool = new HttpServerPool(2);
+ *         private DefaultHttpServer server;
+ *
+ *         &#64;Before
+ *         public void init() {
+ *             server = pool.acquire();
+ *         }
+ *
+ *         &#64;After
+ *         public void finish() {
+ *             pool.release(server);
+ *         }
+ *     </pre>
+ * </p>
+ *
+ * @author Sergey Prilukin
+ */
+public final class HttpServerPool {
+
+    public static final int DEFAULT_WARM_UP_REQUESTS = 200;
+
+    private final BlockingQueue<DefaultHttpServer> idleServers;
+    private final int maxThreads;
+    private volatile boolean closed;
+
+    /**
+     * Create pool with given count of servers ready for use
+     *
+     * @param size count of servers kept in the pool
+     */
+    public HttpServerPool(int size) {
+        this(size, DefaultHttpServer.DEFAULT_MAX_THREADS_COUNT);
+    }
+
+    /**
+     * Create pool with given count of servers ready for use
+     *
+     * @param size count of servers kept in the pool
+     * @param maxThreads max threads count of each server
+     */
+    public HttpServerPool(int size, int maxThreads) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size should be a positive number");
+        }
+
+        this.idleServers = new LinkedBlockingQueue<DefaultHttpServer>(size);
+        this.maxThreads = maxThreads;
+        for (int i = 0; i < size; i++) {
+            idleServers.add(createServer());
+        }
+    }
+
+    private DefaultHttpServer createServer() {
+        DefaultHttpServer server = new DefaultHttpServer();
+        server.setPort(0);
+        server.setMaxThreads(maxThreads);
+        server.start();
+        server.warmUp(DEFAULT_WARM_UP_REQUESTS);
+
+        return server;
+    }
+
+    /**
+     * Take server from the pool or start a new one if pool is empty.
+     * Use {@link DefaultHttpServer#getBaseUrl()} to find its port.
+     *
+     * @return started server without handlers
+     */
+    public DefaultHttpServer acquire() {
+        if (closed) {
+            throw new IllegalStateException("Pool is closed");
+        }
+
+        DefaultHttpServer server = idleServers.poll();
+        return server != null ? server : createServer();
+    }
+
+    /**
+     * Reset server and return it to the pool, server is stopped if pool is full or closed
+     *
+     * @param server server taken from this pool
+     */
+    public void release(DefaultHttpServer server) {
+        server.reset();
+        if (closed || !idleServers.offer(server)) {
+            server.stop();
+        }
+    }
+
+    /**
+     * Stop all servers which are in the pool
+     */
+    public void close() {
+        closed = true;
+
+        DefaultHttpServer server;
+        while ((server = idleServers.poll()) != null) {
+            server.stop();
+        }
+    }
+}
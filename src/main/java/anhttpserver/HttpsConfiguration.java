@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * <p>Settings of HTTPS listener, see {@link HttpServer#setHttpsConfiguration(HttpsConfiguration)}.</p>
+ *
+ * <p>
+ *     Example of usage:<br/>
+ *
+ *     <pre>
+ *         HttpsConfiguration https = new HttpsConfiguration("/path/to/keystore.jks", "changeit");
+ *         https.setProtocols("TLSv1.3", "TLSv1.2");
+ *         https.setSessionCacheSize(10000);
+ *
+ *         server.setHttpsConfiguration(https);
+ *         server.start();
+ *     </pre>
+ * </p>
+ *
+ * <p>TLS session tickets are controlled by JDK itself with
+ * {@code jdk.tls.server.enableSessionTicketExtension} system property.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public final class HttpsConfiguration {
+
+    public static final String DEFAULT_KEY_STORE_TYPE = "JKS";
+    public static final String DEFAULT_PROTOCOL = "TLS";
+
+    private final String keyStorePath;
+    private final String keyStorePassword;
+    private String keyStoreType = DEFAULT_KEY_STORE_TYPE;
+    private String keyPassword;
+    private String[] protocols;
+    private String[] cipherSuites;
+    private int sessionCacheSize = -1;
+    private int sessionTimeout = -1;
+
+    /**
+     * Create configuration which loads server key from local key store file
+     *
+     * @param keyStorePath path to the key store file
+     * @param keyStorePassword password of the key store, also used as a key password
+     *  unless {@link #setKeyPassword(String)} is called
+     */
+    public HttpsConfiguration(String keyStorePath, String keyStorePassword) {
+        if (keyStorePath == null || keyStorePath.isEmpty()) {
+            throw new IllegalArgumentException("Key store path should be a non-empty string");
+        }
+
+        this.keyStorePath = keyStorePath;
+        this.keyStorePassword = keyStorePassword;
+    }
+
+    public String getKeyStorePath() {
+        return keyStorePath;
+    }
+
+    public String getKeyStoreType() {
+        return keyStoreType;
+    }
+
+    /**
+     * Set type of the key store, for example {@code JKS} or {@code PKCS12}.
+     * Default is {@link #DEFAULT_KEY_STORE_TYPE}
+     *
+     * @param keyStoreType type of the key store
+     */
+    public void setKeyStoreType(String keyStoreType) {
+        this.keyStoreType = keyStoreType;
+    }
+
+    /**
+     * Set password of the server key if it differs from key store password
+     *
+     * @param keyPassword password of the key
+     */
+    public void setKeyPassword(String keyPassword) {
+        this.keyPassword = keyPassword;
+    }
+
+    public String[] getProtocols() {
+        return protocols != null ? protocols.clone() : null;
+    }
+
+    /**
+     * Set enabled protocols, for example {@code TLSv1.2}.
+     * JDK defaults are used if not set.
+     *
+     * @param protocols enabled protocols
+     */
+    public void setProtocols(String... protocols) {
+        this.protocols = protocols != null ? protocols.clone() : null;
+    }
+
+    public String[] getCipherSuites() {
+        return cipherSuites != null ? cipherSuites.clone() : null;
+    }
+
+    /**
+     * Set enabled cipher suites in order of preference.
+     * JDK defaults are used if not set.
+     *
+     * @param cipherSuites enabled cipher suites
+     */
+    public void setCipherSuites(String... cipherSuites) {
+        this.cipherSuites = cipherSuites != null ? cipherSuites.clone() : null;
+    }
+
+    public int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    /**
+     * Set max count of TLS sessions cached for resumption, zero means no limit.
+     * JDK default is used if not set.
+     *
+     * @param sessionCacheSize size of the session cache
+     */
+    public void setSessionCacheSize(int sessionCacheSize) {
+        if (sessionCacheSize < 0) {
+            throw new IllegalArgumentException("sessionCacheSize should not be negative");
+        }
+
+        this.sessionCacheSize = sessionCacheSize;
+    }
+
+    public int getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    /**
+     * Set time in seconds during which cached TLS session may be resumed, zero means no limit.
+     * JDK default is used if not set.
+     *
+     * @param sessionTimeout session timeout in seconds
+     */
+    public void setSessionTimeout(int sessionTimeout) {
+        if (sessionTimeout < 0) {
+            throw new IllegalArgumentException("sessionTimeout should not be negative");
+        }
+
+        this.sessionTimeout = sessionTimeout;
+    }
+
+    /**
+     * Load key store and create SSL context according to this configuration
+     *
+     * @return initialized SSL context
+     * @throws IOException if key store could not be read
+     * @throws GeneralSecurityException if SSL context could not be created
+     */
+    SSLContext createSSLContext() throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance(keyStoreType);
+        char[] password = keyStorePassword != null ? keyStorePassword.toCharArray() : null;
+        InputStream is = new FileInputStream(keyStorePath);
+        try {
+            keyStore.load(is, password);
+        } finally {
+            is.close();
+        }
+
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, keyPassword != null ? keyPassword.toCharArray() : password);
+
+        SSLContext sslContext = SSLContext.getInstance(DEFAULT_PROTOCOL);
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+        SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+        if (sessionCacheSize >= 0) {
+            sessionContext.setSessionCacheSize(sessionCacheSize);
+        }
+
+        if (sessionTimeout >= 0) {
+            sessionContext.setSessionTimeout(sessionTimeout);
+        }
+
+        return sslContext;
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON parser and writer used for configuration files.
+ * Objects are parsed into {@link LinkedHashMap}, arrays into {@link ArrayList},
+ * numbers into {@link Long} or {@link Double}.
+ *
+ * @author Sergey Prilukin
+ */
+final class Json {
+
+    private final String text;
+    private int pos;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Parse JSON document
+     *
+     * @param text JSON text
+     * @return parsed value
+     * @throws IllegalArgumentException if text is not a valid JSON
+     */
+    static Object parse(String text) {
+        Json json = new Json(text);
+        Object value = json.readValue();
+        json.skipWhitespace();
+        if (json.pos < text.length()) {
+            throw json.error("Unexpected character");
+        }
+
+        return value;
+    }
+
+    /**
+     * Write value as JSON
+     *
+     * @param value {@link Map}, {@link List}, {@link String}, {@link Number}, {@link Boolean} or {@code null}
+     * @return JSON text
+     */
+    static String write(Object value) {
+        StringBuilder sb = new StringBuilder();
+        write(value, sb);
+        return sb.toString();
+    }
+
+    private static void write(Object value, StringBuilder sb) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry: ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    sb.append(", ");
+                }
+
+                writeString(String.valueOf(entry.getKey()), sb);
+                sb.append(": ");
+                write(entry.getValue(), sb);
+                first = false;
+            }
+
+            sb.append('}');
+        } else if (value instanceof List) {
+            sb.append('[');
+            boolean first = true;
+            for (Object item: (List<?>) value) {
+                if (!first) {
+                    sb.append(", ");
+                }
+
+                write(item, sb);
+                first = false;
+            }
+
+            sb.append(']');
+        } else if (value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else {
+            writeString(value.toString(), sb);
+        }
+    }
+
+    private static void writeString(String s, StringBuilder sb) {
+        sb.append('"');
+        escape(s, sb);
+        sb.append('"');
+    }
+
+    /**
+     * Write characters of JSON string without surrounding quotes
+     *
+     * @param s string to escape
+     * @param sb builder to append escaped string to
+     */
+    static void escape(String s, StringBuilder sb) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Return value selected by simple JSONPath expression like {@code $.user.names[0]}
+     *
+     * @param root parsed JSON document
+     * @param path JSONPath with member and index selectors only
+     * @return selected value or {@code null} if there is no such value
+     */
+    static Object select(Object root, String path) {
+        Object current = root;
+        int i = path.startsWith("$") ? 1 : 0;
+        while (i < path.length() && current != null) {
+            char c = path.charAt(i);
+            if (c == '.') {
+                int end = i + 1;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+
+                current = current instanceof Map ? ((Map<?, ?>) current).get(path.substring(i + 1, end)) : null;
+                i = end;
+            } else if (c == '[') {
+                int end = path.indexOf(']', i);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Invalid JSONPath: " + path);
+                }
+
+                String selector = path.substring(i + 1, end).trim();
+                if (selector.startsWith("'") && selector.endsWith("'") && selector.length() > 1) {
+                    current = current instanceof Map
+                            ? ((Map<?, ?>) current).get(selector.substring(1, selector.length() - 1)) : null;
+                } else {
+                    int index = Integer.parseInt(selector);
+                    current = current instanceof List && index >= 0 && index < ((List<?>) current).size()
+                            ? ((List<?>) current).get(index) : null;
+                }
+
+                i = end + 1;
+            } else {
+                throw new IllegalArgumentException("Invalid JSONPath: " + path);
+            }
+        }
+
+        return current;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + pos);
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private Object readValue() {
+        skipWhitespace();
+        if (pos >= text.length()) {
+            throw error("Unexpected end of JSON");
+        }
+
+        char c = text.charAt(pos);
+        switch (c) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case 't':
+                return readLiteral("true", Boolean.TRUE);
+            case 'f':
+                return readLiteral("false", Boolean.FALSE);
+            case 'n':
+                return readLiteral("null", null);
+            default:
+                return readNumber();
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        pos++;
+        skipWhitespace();
+        if (pos < text.length() && text.charAt(pos) == '}') {
+            pos++;
+            return result;
+        }
+
+        while (true) {
+            skipWhitespace();
+            if (pos >= text.length() || text.charAt(pos) != '"') {
+                throw error("Expected name of object member");
+            }
+
+            String name = readString();
+            skipWhitespace();
+            expect(':');
+            result.put(name, readValue());
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == ',') {
+                pos++;
+            } else {
+                expect('}');
+                return result;
+            }
+        }
+    }
+
+    private List<Object> readArray() {
+        List<Object> result = new ArrayList<Object>();
+        pos++;
+        skipWhitespace();
+        if (pos < text.length() && text.charAt(pos) == ']') {
+            pos++;
+            return result;
+        }
+
+        while (true) {
+            result.add(readValue());
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == ',') {
+                pos++;
+            } else {
+                expect(']');
+                return result;
+            }
+        }
+    }
+
+    private String readString() {
+        StringBuilder sb = new StringBuilder();
+        pos++;
+        while (pos < text.length()) {
+            char c = text.charAt(pos++);
+            if (c == '"') {
+                return sb.toString();
+            } else if (c == '\\') {
+                if (pos >= text.length()) {
+                    break;
+                }
+
+                char escaped = text.charAt(pos++);
+                switch (escaped) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("Invalid unicode escape");
+                        }
+
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: sb.append(escaped);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+
+        throw error("Unterminated string");
+    }
+
+    private Object readLiteral(String literal, Object value) {
+        if (!text.startsWith(literal, pos)) {
+            throw error("Unexpected character");
+        }
+
+        pos += literal.length();
+        return value;
+    }
+
+    private Number readNumber() {
+        int start = pos;
+        boolean decimal = false;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '.' || c == 'e' || c == 'E') {
+                decimal = true;
+            } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+
+            pos++;
+        }
+
+        if (start == pos) {
+            throw error("Unexpected character");
+        }
+
+        try {
+            String number = text.substring(start, pos);
+            return decimal ? (Number) Double.valueOf(number) : (Number) Long.valueOf(number);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number");
+        }
+    }
+
+    private void expect(char c) {
+        if (pos >= text.length() || text.charAt(pos) != c) {
+            throw error("Expected '" + c + "'");
+        }
+
+        pos++;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link StateTransport} which delivers updates between nodes
+ * in the same JVM, for example between several servers in one test.
+ *
+ * @author Sergey Prilukin
+ */
+public final class LoopbackStateTransport implements StateTransport {
+
+    private final List<SharedState> nodes = new CopyOnWriteArrayList<SharedState>();
+
+    public void connect(SharedState node) {
+        nodes.add(node);
+    }
+
+    public void disconnect(SharedState node) {
+        nodes.remove(node);
+    }
+
+    public void publish(SharedState sender, List<StateUpdate> updates) {
+        for (SharedState node: nodes) {
+            if (node != sender) {
+                node.apply(updates);
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Single stub of {@link MockRoutesHandler}: request matchers which are not
+ * covered by path trie and response which is sent when all of them match.
+ *
+ * @author Sergey Prilukin
+ */
+final class MockRoute {
+
+    static final String PATH_PARAMETER_PREFIX = "{";
+    static final String PATH_PARAMETER_SUFFIX = "}";
+    static final String PATH_WILDCARD = "*";
+
+    private final String method;
+    private final String[] pathSegments;
+    private final Map<String, Pattern> headers;
+    private final Map<String, Pattern> query;
+    private final Pattern body;
+    private final Map<String, Pattern> jsonPaths;
+
+    private final int status;
+    private final Map<String, String> responseHeaders;
+    private final Template responseBody;
+    private final byte[] binaryResponseBody;
+
+    /**
+     * Compile route from JSON object like
+     * <pre>
+     * {"request": {"method": "GET", "path": "/users/{id}", "headers": {"Accept": ".*json.*"},
+     *              "query": {"q": "\\w+"}, "body": ".*", "jsonPath": {"$.name": "john"}},
+     *  "response": {"status": 200, "headers": {"Content-Type": "application/json"},
+     *               "body": "{\"id\": \"{{path.id}}\"}"}}
+     * </pre>
+     * Binary response body is set by {@code "bodyBase64"} instead of {@code "body"}.
+     */
+    MockRoute(Map<String, Object> definition) {
+        Map<String, Object> request = getObject(definition, "request");
+        Map<String, Object> response = getObject(definition, "response");
+
+        Object methodValue = request.get("method");
+        this.method = methodValue != null ? methodValue.toString().toUpperCase() : null;
+
+        Object path = request.get("path");
+        if (path == null) {
+            throw new IllegalArgumentException("Path of mock route is not specified");
+        }
+
+        this.pathSegments = splitPath(path.toString());
+        this.headers = compilePatterns(getObject(request, "headers"));
+        this.query = compilePatterns(getObject(request, "query"));
+        this.body = request.get("body") != null ? Pattern.compile(request.get("body").toString(), Pattern.DOTALL) : null;
+        this.jsonPaths = compilePatterns(getObject(request, "jsonPath"));
+
+        Object statusValue = response.get("status");
+        this.status = statusValue instanceof Number ? ((Number) statusValue).intValue() : 200;
+
+        Map<String, String> headersMap = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, Object> entry: getObject(response, "headers").entrySet()) {
+            headersMap.put(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+
+        this.responseHeaders = Collections.unmodifiableMap(headersMap);
+        if (response.get("bodyBase64") != null) {
+            this.responseBody = null;
+            this.binaryResponseBody = Base64.getDecoder().decode(response.get("bodyBase64").toString());
+        } else {
+            this.responseBody = Template.compile(response.get("body") != null ? response.get("body").toString() : "",
+                    FormParser.DEFAULT_CHARSET, path.toString());
+            this.binaryResponseBody = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getObject(Map<String, Object> parent, String name) {
+        Object value = parent.get(name);
+        if (value == null) {
+            return Collections.emptyMap();
+        } else if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("\"" + name + "\" should be an object");
+        }
+
+        return (Map<String, Object>) value;
+    }
+
+    private static Map<String, Pattern> compilePatterns(Map<String, Object> patterns) {
+        if (patterns.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Pattern> result = new LinkedHashMap<String, Pattern>();
+        for (Map.Entry<String, Object> entry: patterns.entrySet()) {
+            result.put(entry.getKey(), Pattern.compile(String.valueOf(entry.getValue()), Pattern.DOTALL));
+        }
+
+        return result;
+    }
+
+    /**
+     * Split path into segments ignoring empty ones
+     *
+     * @param path path like {@code /a/b/}
+     * @return segments like {@code ["a", "b"]}
+     */
+    static String[] splitPath(String path) {
+        List<String> segments = new ArrayList<String>();
+        int start = 0;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+
+            if (end > start) {
+                segments.add(path.substring(start, end));
+            }
+
+            start = end + 1;
+        }
+
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    String[] getPathSegments() {
+        return pathSegments;
+    }
+
+    /**
+     * Check matchers of the route except path which is already matched by trie
+     */
+    boolean matches(HttpRequestContext httpRequestContext) {
+        if (method != null && !method.equals(httpRequestContext.getRequestMethod())) {
+            return false;
+        }
+
+        for (Map.Entry<String, Pattern> entry: headers.entrySet()) {
+            if (!matches(entry.getValue(), httpRequestContext.getHeader(entry.getKey()))) {
+                return false;
+            }
+        }
+
+        for (Map.Entry<String, Pattern> entry: query.entrySet()) {
+            if (!matches(entry.getValue(), httpRequestContext.getQueryParam(entry.getKey()))) {
+                return false;
+            }
+        }
+
+        if (body != null && !matches(body, getBody(httpRequestContext))) {
+            return false;
+        }
+
+        if (!jsonPaths.isEmpty()) {
+            Object json = Template.getJsonBody(httpRequestContext);
+            if (json == Template.INVALID_JSON) {
+                return false;
+            }
+
+            for (Map.Entry<String, Pattern> entry: jsonPaths.entrySet()) {
+                Object value = Json.select(json, entry.getKey());
+                if (!matches(entry.getValue(), value != null ? value.toString() : null)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean matches(Pattern pattern, String value) {
+        return value != null && pattern.matcher(value).matches();
+    }
+
+    private static String getBody(HttpRequestContext httpRequestContext) {
+        return new String(httpRequestContext.getRequestBody(), FormParser.DEFAULT_CHARSET);
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+    Map<String, String> getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    byte[] renderResponseBody(HttpRequestContext httpRequestContext) throws IOException {
+        return responseBody != null ? responseBody.render(httpRequestContext) : binaryResponseBody;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Handler which serves stubs defined in a JSON file instead of Java code.</p>
+ *
+ * <p>
+ *     Example of file:<br/>
+ *
+ *     <pre>
+ *     {"routes": [
+ *         {"request": {"method": "GET", "path": "/users/{id}", "query": {"fields": "name|email"}},
+ *          "response": {"status": 200, "headers": {"Content-Type": "application/json"},
+ *                       "body": "{\"id\": \"{{path.id}}\"}"}},
+ *         {"request": {"method": "POST", "path": "/users", "jsonPath": {"$.name": ".+"}},
+ *          "response": {"status": 201}},
+ *         {"request": {"path": "/static/*"},
+ *          "response": {"body": "static"}}
+ *     ]}
+ *     </pre>
+ * </p>
+ *
+ * <p>Path segment {@code {name}} matches any single segment, {@code *} as the last segment
+ * matches any rest of the path. Values of headers, query parameters, body and
+ * JSONPath selections are regular expressions which must match the whole value.</p>
+ *
+ * <p>Response body is a {@link Template}, names of its {@code {{path.name}}}
+ * placeholders are taken from path of the route. Binary response body
+ * is set by {@code "bodyBase64"} and is sent as is.</p>
+ *
+ * <p>Routes are compiled into a trie of path segments, so lookup time depends
+ * on length of request path rather than on count of routes. Literal segments
+ * take precedence over {@code {name}} segments which take precedence over {@code *},
+ * routes with the same path are checked in order of the file.
+ * If no route matches {@code 404 Not Found} is returned.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class MockRoutesHandler extends ByteArrayHandlerAdapter {
+
+    public static final long DEFAULT_RELOAD_INTERVAL = 1000; //1 second
+
+    private static final Log log = LogFactory.getLog(MockRoutesHandler.class);
+
+    private final File file;
+    private volatile Node root = new Node();
+    private volatile int routesCount;
+    private long lastModified;
+    private long lastLength;
+    private ScheduledFuture<?> watching;
+
+    /**
+     * Create handler and load routes from file
+     *
+     * @param file JSON file with routes
+     * @throws IOException if file could not be read or is not a valid routes file
+     */
+    public MockRoutesHandler(File file) throws IOException {
+        this.file = file;
+        reload();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Load routes from file and replace current ones.
+     * Requests being processed continue to use previous routes.
+     *
+     * @throws IOException if file could not be read or is not a valid routes file
+     */
+    public synchronized void reload() throws IOException {
+        long modified = file.lastModified();
+        long length = file.length();
+
+        Node newRoot = new Node();
+        int count = 0;
+        try {
+            Object json = Json.parse(FileUtils.readFileToString(file, FormParser.DEFAULT_CHARSET.name()));
+            Object routes = json instanceof Map ? ((Map<?, ?>) json).get("routes") : null;
+            if (!(routes instanceof List)) {
+                throw new IllegalArgumentException("\"routes\" array is not found");
+            }
+
+            for (Object definition: (List<?>) routes) {
+                if (!(definition instanceof Map)) {
+                    throw new IllegalArgumentException("Route should be an object");
+                }
+
+                @SuppressWarnings("unchecked")
+                MockRoute route = new MockRoute((Map<String, Object>) definition);
+                newRoot.add(route, 0);
+                count++;
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid mock routes file " + file + ": " + e.getMessage(), e);
+        }
+
+        root = newRoot;
+        routesCount = count;
+        lastModified = modified;
+        lastLength = length;
+    }
+
+    /**
+     * Check file periodically and reload routes if it was changed.
+     * If changed file is invalid, error is logged and previous routes are kept.
+     *
+     * @param scheduler scheduler which will check the file
+     * @param interval interval between checks in milliseconds
+     */
+    public synchronized void startWatching(ScheduledExecutorService scheduler, long interval) {
+        //Task is cancelled when scheduler of stopped server is shut down
+        if (watching == null || watching.isDone()) {
+            watching = scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    reloadIfChanged();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stopWatching() {
+        if (watching != null) {
+            watching.cancel(false);
+            watching = null;
+        }
+    }
+
+    synchronized boolean reloadIfChanged() {
+        if (file.lastModified() == lastModified && file.length() == lastLength) {
+            return false;
+        }
+
+        try {
+            reload();
+            return true;
+        } catch (IOException e) {
+            log.warn(e.getMessage());
+
+            //Do not report the same broken file again
+            lastModified = file.lastModified();
+            lastLength = file.length();
+            return false;
+        }
+    }
+
+    /**
+     * Return count of loaded routes
+     *
+     * @return count of routes
+     */
+    public int getRoutesCount() {
+        return routesCount;
+    }
+
+    @Override
+    public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) throws IOException {
+        String[] segments = MockRoute.splitPath(httpRequestContext.getRequestURI().getPath());
+        MockRoute route = root.find(segments, 0, httpRequestContext);
+        if (route == null) {
+            throw new HttpException(HttpURLConnection.HTTP_NOT_FOUND);
+        }
+
+        setResponseCode(route.getStatus(), httpRequestContext);
+        setResponseHeaders(route.getResponseHeaders(), httpRequestContext);
+        return route.renderResponseBody(httpRequestContext);
+    }
+
+    /**
+     * Node of path trie
+     */
+    private static final class Node {
+        private final Map<String, Node> literals = new HashMap<String, Node>();
+        private Node parameter;
+        private final List<MockRoute> routes = new ArrayList<MockRoute>(1);
+        private final List<MockRoute> wildcardRoutes = new ArrayList<MockRoute>(1);
+
+        void add(MockRoute route, int depth) {
+            String[] segments = route.getPathSegments();
+            if (depth == segments.length) {
+                routes.add(route);
+                return;
+            }
+
+            String segment = segments[depth];
+            if (segment.equals(MockRoute.PATH_WILDCARD) && depth == segments.length - 1) {
+                wildcardRoutes.add(route);
+            } else if (segment.startsWith(MockRoute.PATH_PARAMETER_PREFIX)
+                    && segment.endsWith(MockRoute.PATH_PARAMETER_SUFFIX)) {
+                if (parameter == null) {
+                    parameter = new Node();
+                }
+
+                parameter.add(route, depth + 1);
+            } else {
+                Node child = literals.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    literals.put(segment, child);
+                }
+
+                child.add(route, depth + 1);
+            }
+        }
+
+        MockRoute find(String[] segments, int depth, HttpRequestContext httpRequestContext) {
+            MockRoute route;
+            if (depth == segments.length) {
+                route = findMatching(routes, httpRequestContext);
+                if (route != null) {
+                    return route;
+                }
+            } else {
+                Node child = literals.get(segments[depth]);
+                if (child != null && (route = child.find(segments, depth + 1, httpRequestContext)) != null) {
+                    return route;
+                }
+
+                if (parameter != null && (route = parameter.find(segments, depth + 1, httpRequestContext)) != null) {
+                    return route;
+                }
+            }
+
+            return findMatching(wildcardRoutes, httpRequestContext);
+        }
+
+        private static MockRoute findMatching(List<MockRoute> candidates, HttpRequestContext httpRequestContext) {
+            for (int i = 0; i < candidates.size(); i++) {
+                MockRoute route = candidates.get(i);
+                if (route.matches(httpRequestContext)) {
+                    return route;
+                }
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import com.sun.net.httpserver.Headers;
+
+import java.util.Map;
+
+/**
+ * Immutable list of response headers prepared once
+ * and copied to {@link Headers} of every response
+ * without iterating over synchronized maps.
+ *
+ * @author Sergey Prilukin
+ */
+final class PreparedHeaders {
+
+    static final PreparedHeaders EMPTY = new PreparedHeaders(new String[0], new String[0]);
+
+    private final String[] names;
+    private final String[] values;
+
+    private PreparedHeaders(String[] names, String[] values) {
+        this.names = names;
+        this.values = values;
+    }
+
+    /**
+     * Prepare headers from passed map
+     *
+     * @param headers map where key is name of a header and value is a value of a header
+     * @return prepared headers
+     */
+    static PreparedHeaders of(Map<String, String> headers) {
+        if (headers == null || headers.size() == 0) {
+            return EMPTY;
+        }
+
+        String[] names = new String[headers.size()];
+        String[] values = new String[headers.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry: headers.entrySet()) {
+            names[i] = entry.getKey();
+            values[i] = entry.getValue();
+            i++;
+        }
+
+        return new PreparedHeaders(names, values);
+    }
+
+    /**
+     * Return new instance which contains headers of this instance
+     * followed by headers of {@code other}
+     *
+     * @param other headers to append
+     * @return merged headers
+     */
+    PreparedHeaders append(PreparedHeaders other) {
+        if (other.names.length == 0) {
+            return this;
+        } else if (names.length == 0) {
+            return other;
+        }
+
+        String[] mergedNames = new String[names.length + other.names.length];
+        String[] mergedValues = new String[values.length + other.values.length];
+        System.arraycopy(names, 0, mergedNames, 0, names.length);
+        System.arraycopy(other.names, 0, mergedNames, names.length, other.names.length);
+        System.arraycopy(values, 0, mergedValues, 0, values.length);
+        System.arraycopy(other.values, 0, mergedValues, values.length, other.values.length);
+
+        return new PreparedHeaders(mergedNames, mergedValues);
+    }
+
+    /**
+     * Add all prepared headers to passed response headers
+     *
+     * @param headers response headers
+     */
+    void addTo(Headers headers) {
+        for (int i = 0; i < names.length; i++) {
+            headers.add(names[i], values[i]);
+        }
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Handler which forwards requests to upstream server, for example to mock
+ * only a few endpoints and pass everything else to a real service:</p>
+ *
+ * <pre>
+ *     server.addHandler("/orders", ordersMock);
+ *     server.setFallbackHandler(new ProxyHttpHandler("http://localhost:8080"));
+ * </pre>
+ *
+ * <p>Request and response bodies are streamed without buffering.
+ * Upstream connections are kept alive and reused by {@link HttpURLConnection},
+ * count of idle connections per upstream is set by {@code http.maxConnections} system property.
+ * Repeated response headers like {@code Set-Cookie} are sent separately,
+ * recorded stubs keep them joined with comma.
+ * Redirects are passed to the client. If upstream is not reachable
+ * {@code 502 Bad Gateway} is returned.</p>
+ *
+ * <p>When recording is enabled, each passed through request is turned
+ * into a stub in format of {@link MockRoutesHandler}, at most
+ * {@link #getMaxRecordedRoutes()} stubs are kept. Recorded bodies are buffered.
+ * Response bodies which are not valid UTF-8 text are kept in Base64,
+ * binary request bodies are not matched by stubs.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public class ProxyHttpHandler extends SimpleHttpHandlerAdapter {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000; //10 seconds
+    public static final int DEFAULT_READ_TIMEOUT = 30000; //30 seconds
+    public static final String FORWARDED_FOR_HEADER_NAME = "X-Forwarded-For";
+    public static final int DEFAULT_MAX_RECORDED_ROUTES = 1000;
+
+    private static final Log log = LogFactory.getLog(ProxyHttpHandler.class);
+
+    //Headers which are related to a single connection and are not forwarded
+    private static final Set<String> HOP_BY_HOP_HEADERS = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+    static {
+        HOP_BY_HOP_HEADERS.addAll(Arrays.asList("Connection", "Keep-Alive", "Proxy-Authenticate",
+                "Proxy-Authorization", "Proxy-Connection", "TE", "Trailer", "Transfer-Encoding", "Upgrade",
+                "Host", "Content-Length", "Date", "Server"));
+    }
+
+    private static final Set<String> METHODS_WITHOUT_BODY = new HashSet<String>(
+            Arrays.asList("GET", "HEAD", "OPTIONS", "DELETE", "TRACE"));
+
+    private final String upstream;
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+    private volatile boolean recording;
+    private volatile int maxRecordedRoutes = DEFAULT_MAX_RECORDED_ROUTES;
+    private boolean recordedRoutesLimitLogged;
+    private final List<Map<String, Object>> recordedRoutes = new ArrayList<Map<String, Object>>();
+
+    /**
+     * Create handler
+     *
+     * @param upstream base url of upstream server like {@code http://localhost:8080},
+     *                 path and query of request are appended to it
+     */
+    public ProxyHttpHandler(String upstream) {
+        this.upstream = upstream.endsWith(DefaultHttpServer.PATH_DELIMITER)
+                ? upstream.substring(0, upstream.length() - 1) : upstream;
+    }
+
+    public String getUpstream() {
+        return upstream;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Enable or disable recording of passed through requests
+     *
+     * @param recording {@code true} to record requests
+     */
+    public void setRecording(boolean recording) {
+        this.recording = recording;
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    public int getMaxRecordedRoutes() {
+        return maxRecordedRoutes;
+    }
+
+    /**
+     * Set max count of recorded requests, requests received when
+     * limit is reached are passed through without recording
+     *
+     * @param maxRecordedRoutes max count of recorded requests
+     */
+    public void setMaxRecordedRoutes(int maxRecordedRoutes) {
+        this.maxRecordedRoutes = maxRecordedRoutes;
+    }
+
+    /**
+     * Return recorded requests as routes file of {@link MockRoutesHandler}
+     *
+     * @return JSON text
+     */
+    public String getRecordedRoutes() {
+        Map<String, Object> document = new LinkedHashMap<String, Object>();
+        synchronized (recordedRoutes) {
+            document.put("routes", new ArrayList<Map<String, Object>>(recordedRoutes));
+        }
+
+        return Json.write(document);
+    }
+
+    /**
+     * Save recorded requests as routes file of {@link MockRoutesHandler}
+     *
+     * @param file file to write
+     * @throws IOException if file could not be written
+     */
+    public void saveRecordedRoutes(File file) throws IOException {
+        FileUtils.writeStringToFile(file, getRecordedRoutes(), FormParser.DEFAULT_CHARSET.name());
+    }
+
+    public void clearRecordedRoutes() {
+        synchronized (recordedRoutes) {
+            recordedRoutes.clear();
+            recordedRoutesLimitLogged = false;
+        }
+    }
+
+    public InputStream getResponse(HttpRequestContext httpRequestContext) throws IOException {
+        String uri = httpRequestContext.getRequestURI().getRawPath();
+        String query = httpRequestContext.getRequestURI().getRawQuery();
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                upstream + uri + (query != null ? "?" + query : "")).openConnection();
+        connection.setInstanceFollowRedirects(false);
+        connection.setUseCaches(false);
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+
+        String method = httpRequestContext.getRequestMethod();
+        connection.setRequestMethod(method);
+        boolean recordRequest = recording && !isRecordedRoutesFull();
+        for (Map.Entry<String, List<String>> entry: httpRequestContext.getRequestHeaders().entrySet()) {
+            if (entry.getKey() != null && !HOP_BY_HOP_HEADERS.contains(entry.getKey())) {
+                for (String value: entry.getValue()) {
+                    connection.addRequestProperty(entry.getKey(), value);
+                }
+            }
+        }
+
+        connection.setRequestProperty(RequestTrace.TRACEPARENT_HEADER_NAME, httpRequestContext.getTrace().getTraceParent());
+        String forwardedFor = httpRequestContext.getHeader(FORWARDED_FOR_HEADER_NAME);
+        String remoteAddress = httpRequestContext.getRemoteAddress();
+        connection.setRequestProperty(FORWARDED_FOR_HEADER_NAME,
+                forwardedFor != null ? forwardedFor + ", " + remoteAddress : remoteAddress);
+
+        byte[] recordedRequestBody = null;
+        try {
+            long contentLength = httpRequestContext.getContentLength();
+            boolean hasBody = contentLength > 0 || (contentLength < 0 && !METHODS_WITHOUT_BODY.contains(method));
+            if (hasBody) {
+                connection.setDoOutput(true);
+                InputStream requestBody;
+                if (recordRequest) {
+                    recordedRequestBody = httpRequestContext.getRequestBody();
+                    requestBody = new ByteArrayInputStream(recordedRequestBody);
+                    connection.setFixedLengthStreamingMode(recordedRequestBody.length);
+                } else {
+                    requestBody = httpRequestContext.getRequestBodyAsStream();
+                    if (contentLength > 0) {
+                        connection.setFixedLengthStreamingMode(contentLength);
+                    } else {
+                        connection.setChunkedStreamingMode(DefaultHttpServer.STREAMING_BUFFER_SIZE);
+                    }
+                }
+
+                OutputStream out = connection.getOutputStream();
+                try {
+                    IOUtils.copyLarge(requestBody, out);
+                } finally {
+                    out.close();
+                }
+            }
+
+            int code = connection.getResponseCode();
+            setResponseCode(code, httpRequestContext);
+        } catch (IOException e) {
+            connection.disconnect();
+            setResponseCode(HttpURLConnection.HTTP_BAD_GATEWAY, httpRequestContext);
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        Map<String, String> responseHeaders = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, List<String>> entry: connection.getHeaderFields().entrySet()) {
+            //Null key is a status line
+            if (entry.getKey() != null && !HOP_BY_HOP_HEADERS.contains(entry.getKey())) {
+                StringBuilder value = new StringBuilder();
+                for (String item: entry.getValue()) {
+                    if (value.length() > 0) {
+                        value.append(", ");
+                    }
+
+                    value.append(item);
+                }
+
+                responseHeaders.put(entry.getKey(), value.toString());
+                if (entry.getValue().size() > 1) {
+                    //Values like Set-Cookie can not be joined, so they are sent separately
+                    for (String item: entry.getValue()) {
+                        addResponseHeader(entry.getKey(), item, httpRequestContext);
+                    }
+                } else {
+                    setResponseHeader(entry.getKey(), value.toString(), httpRequestContext);
+                }
+            }
+        }
+
+        long responseLength = connection.getContentLengthLong();
+        setResponseSize(responseLength >= 0 ? responseLength : STREAMING_RESPONSE_SIZE, httpRequestContext);
+
+        InputStream response = connection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+                ? connection.getErrorStream() : connection.getInputStream();
+        if (response == null) {
+            response = new ByteArrayInputStream(new byte[0]);
+            setResponseSize(0, httpRequestContext);
+        }
+
+        if (recordRequest) {
+            response = new RecordingInputStream(response, httpRequestContext, recordedRequestBody,
+                    connection.getResponseCode(), responseHeaders);
+        }
+
+        return response;
+    }
+
+    private void record(HttpRequestContext httpRequestContext, byte[] requestBody, int code,
+                        Map<String, String> headers, byte[] responseBody) {
+        Map<String, Object> request = new LinkedHashMap<String, Object>();
+        request.put("method", httpRequestContext.getRequestMethod());
+        request.put("path", httpRequestContext.getRequestURI().getPath());
+
+        Map<String, List<String>> queryParameters = httpRequestContext.getQueryParameters();
+        if (!queryParameters.isEmpty()) {
+            Map<String, Object> query = new LinkedHashMap<String, Object>();
+            for (Map.Entry<String, List<String>> entry: queryParameters.entrySet()) {
+                query.put(entry.getKey(), Pattern.quote(entry.getValue().get(0)));
+            }
+
+            request.put("query", query);
+        }
+
+        if (requestBody != null && requestBody.length > 0) {
+            String text = decodeText(requestBody);
+            if (text != null) {
+                request.put("body", Pattern.quote(text));
+            } else {
+                log.warn(String.format("Binary body of %s %s is not matched by recorded stub",
+                        httpRequestContext.getRequestMethod(), httpRequestContext.getRequestURI()));
+            }
+        }
+
+        Map<String, Object> response = new LinkedHashMap<String, Object>();
+        response.put("status", code);
+        response.put("headers", new LinkedHashMap<String, Object>(headers));
+        String text = decodeText(responseBody);
+        if (text != null) {
+            response.put("body", text);
+        } else {
+            response.put("bodyBase64", Base64.getEncoder().encodeToString(responseBody));
+        }
+
+        Map<String, Object> route = new LinkedHashMap<String, Object>();
+        route.put("request", request);
+        route.put("response", response);
+        synchronized (recordedRoutes) {
+            if (recordedRoutes.size() < maxRecordedRoutes) {
+                recordedRoutes.add(route);
+            }
+        }
+    }
+
+    private boolean isRecordedRoutesFull() {
+        synchronized (recordedRoutes) {
+            if (recordedRoutes.size() < maxRecordedRoutes) {
+                return false;
+            }
+
+            if (!recordedRoutesLimitLogged) {
+                recordedRoutesLimitLogged = true;
+                log.warn(String.format("%s requests are recorded, other requests are not recorded", maxRecordedRoutes));
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Decode body as UTF-8 text
+     *
+     * @return text or {@code null} if body is not valid UTF-8
+     */
+    private static String decodeText(byte[] body) {
+        try {
+            return FormParser.DEFAULT_CHARSET.newDecoder().decode(ByteBuffer.wrap(body)).toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Copies response body while it is streamed to client and records
+     * the request when body is completely read
+     */
+    private final class RecordingInputStream extends FilterInputStream {
+        private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private final HttpRequestContext httpRequestContext;
+        private final byte[] requestBody;
+        private final int code;
+        private final Map<String, String> headers;
+        private boolean recorded;
+
+        RecordingInputStream(InputStream in, HttpRequestContext httpRequestContext, byte[] requestBody,
+                             int code, Map<String, String> headers) {
+            super(in);
+            this.httpRequestContext = httpRequestContext;
+            this.requestBody = requestBody;
+            this.code = code;
+            this.headers = headers;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                copy.write(b);
+            } else {
+                complete();
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                copy.write(b, off, read);
+            } else if (read == -1) {
+                complete();
+            }
+
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            //HEAD responses and responses without body are not read by server
+            if (!recorded) {
+                IOUtils.copyLarge(this, new ByteArrayOutputStream());
+            }
+
+            super.close();
+        }
+
+        private void complete() {
+            if (!recorded) {
+                recorded = true;
+                record(httpRequestContext, requestBody, code, headers, copy.toByteArray());
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Request captured by {@link RequestJournal}
+ *
+ * @author Sergey Prilukin
+ */
+public final class RecordedRequest {
+
+    private final long sequence;
+    private final long timestamp;
+    private final String method;
+    private final URI uri;
+    private final Map<String, List<String>> headers;
+    private final byte[] body;
+    private final boolean bodyTruncated;
+
+    RecordedRequest(long sequence, String method, URI uri, Map<String, List<String>> headers,
+                    byte[] body, boolean bodyTruncated) {
+        this.sequence = sequence;
+        this.timestamp = System.currentTimeMillis();
+        this.method = method;
+        this.uri = uri;
+        this.headers = headers;
+        this.body = body;
+        this.bodyTruncated = bodyTruncated;
+    }
+
+    /**
+     * Return number of the request in journal, requests are numbered from zero in order of arrival
+     *
+     * @return sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Return time when request was recorded
+     *
+     * @return time in milliseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public URI getURI() {
+        return uri;
+    }
+
+    public String getPath() {
+        return uri.getPath();
+    }
+
+    /**
+     * Return all request headers
+     *
+     * @return unmodifiable map with case-insensitive names of headers
+     */
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Return first value of request header
+     *
+     * @param name case-insensitive name of the header
+     * @return value of the header or {@code null} if there is no such header
+     */
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    /**
+     * Return request body. Body is empty if handler consumed it with
+     * {@link HttpRequestContext#getRequestBodyAsStream()}.
+     *
+     * @return body, possibly truncated
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    public String getBodyAsString(Charset charset) {
+        return new String(body, charset);
+    }
+
+    /**
+     * Return whether body was bigger than max body size of the journal
+     *
+     * @return {@code true} if only beginning of the body was recorded
+     */
+    public boolean isBodyTruncated() {
+        return bodyTruncated;
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + uri;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+/**
+ * <p>Decides whether request should be processed before its body is read.</p>
+ *
+ * <p>Handler of a route may implement this interface to reject requests
+ * by method, URI or headers, for example uploads which are too large,
+ * without receiving their body. Rejected request gets error response
+ * with returned code, see {@link ErrorHandler}, and connection is closed
+ * if client continues to send the body.</p>
+ *
+ * <p>
+ *     Example of usage:<br/>
+ *
+ *     <pre>
+ *         class UploadHandler extends ByteArrayHandlerAdapter implements RequestAdmission {
+ *             public int admit(HttpRequestContext httpRequestContext) {
+ *                 return httpRequestContext.getContentLength() &lt;= MAX_UPLOAD_SIZE
+ *                         ? ADMIT : HttpURLConnection.HTTP_ENTITY_TOO_LARGE;
+ *             }
+ *             //...
+ *         }
+ *     </pre>
+ * </p>
+ *
+ * @author Sergey Prilukin
+ * @see DefaultHttpServer#setMaxRequestSize(long)
+ */
+public interface RequestAdmission {
+
+    /**
+     * Code returned by {@link #admit(HttpRequestContext)} when request should be processed,
+     * same as {@code 100 Continue}
+     */
+    public static final int ADMIT = 100;
+
+    /**
+     * Check request before its body is read.
+     * Body of the request should not be read by this method.
+     *
+     * @param httpRequestContext instance of {@link HttpRequestContext} -
+     *  facade for {@link com.sun.net.httpserver.HttpExchange}
+     * @return {@link #ADMIT} if request should be passed to handler,
+     *  otherwise response code of error, for example {@code 413} or {@code 417}
+     */
+    public int admit(HttpRequestContext httpRequestContext);
+}
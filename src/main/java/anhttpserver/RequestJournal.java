@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>Bounded journal of requests received by server, intended for verification in tests.</p>
+ *
+ * <p>Requests are kept in a lock-free ring buffer, when it is full the oldest request is evicted.
+ * Requests are additionally indexed by path and by method, so looking for requests
+ * of a single path does not scan the whole journal.</p>
+ *
+ * <p>
+ *     Example of usage:<br/>
+ *
+ *     <pre>
+ *         RequestJournal journal = new RequestJournal();
+ *         server.setRequestJournal(journal);
+ *         //... run code under test
+ *         assertEquals(1, journal.count("POST", "/orders"));
+ *     </pre>
+ * </p>
+ *
+ * @author Sergey Prilukin
+ */
+public final class RequestJournal {
+
+    public static final int DEFAULT_CAPACITY = 10000;
+    public static final int DEFAULT_MAX_BODY_SIZE = 64 * 1024;
+
+    //Key of exchange attribute with recorder of request body
+    private static final String BODY_RECORDER_ATTRIBUTE_KEY = "anhttpserver.journal.body.recorder";
+
+    private static final Comparator<RecordedRequest> SEQUENCE_ORDER = new Comparator<RecordedRequest>() {
+        public int compare(RecordedRequest r1, RecordedRequest r2) {
+            return r1.getSequence() < r2.getSequence() ? -1 : (r1.getSequence() == r2.getSequence() ? 0 : 1);
+        }
+    };
+
+    private final int capacity;
+    private final int maxBodySize;
+    private final AtomicReferenceArray<RecordedRequest> ring;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+
+    private final ConcurrentHashMap<String, Queue<RecordedRequest>> pathIndex
+            = new ConcurrentHashMap<String, Queue<RecordedRequest>>();
+    private final ConcurrentHashMap<String, Queue<RecordedRequest>> methodIndex
+            = new ConcurrentHashMap<String, Queue<RecordedRequest>>();
+
+    public RequestJournal() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_BODY_SIZE);
+    }
+
+    /**
+     * Create journal
+     *
+     * @param capacity max count of kept requests
+     * @param maxBodySize max count of recorded bytes of request body
+     */
+    public RequestJournal(int capacity, int maxBodySize) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be a positive number");
+        }
+
+        this.capacity = capacity;
+        this.maxBodySize = maxBodySize;
+        this.ring = new AtomicReferenceArray<RecordedRequest>(capacity);
+    }
+
+    /**
+     * Keep first bytes of request body while handler reads it,
+     * called by server before request is handled.
+     */
+    void startRecording(HttpExchange httpExchange) {
+        BodyRecorder recorder = new BodyRecorder(httpExchange.getRequestBody(), maxBodySize + 1);
+        httpExchange.setAttribute(BODY_RECORDER_ATTRIBUTE_KEY, recorder);
+        httpExchange.setStreams(recorder, null);
+    }
+
+    /**
+     * Record request, called by server after handler read request body
+     * and before response is sent.
+     */
+    void record(HttpExchange httpExchange) throws IOException {
+        //Part of body not read by handler is drained, only first bytes are kept
+        byte[] body = readBody(httpExchange.getRequestBody());
+        Object recorder = httpExchange.getAttribute(BODY_RECORDER_ATTRIBUTE_KEY);
+        if (recorder instanceof BodyRecorder) {
+            body = ((BodyRecorder) recorder).getRecorded();
+        }
+
+        boolean truncated = body.length > maxBodySize;
+        if (truncated) {
+            body = Arrays.copyOf(body, maxBodySize);
+        }
+
+        Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> entry: httpExchange.getRequestHeaders().entrySet()) {
+            if (entry.getKey() != null) {
+                headers.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<String>(entry.getValue())));
+            }
+        }
+
+        add(new RecordedRequest(nextSequence.getAndIncrement(), httpExchange.getRequestMethod(),
+                httpExchange.getRequestURI(), Collections.unmodifiableMap(headers), body, truncated));
+    }
+
+    private byte[] readBody(InputStream in) throws IOException {
+        //Keep one byte more than limit to know whether body was truncated
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (out.size() <= maxBodySize) {
+                out.write(buffer, 0, Math.min(read, maxBodySize + 1 - out.size()));
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Stream which copies at most given count of read bytes
+     */
+    private static final class BodyRecorder extends FilterInputStream {
+        private final ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+        private final int limit;
+
+        BodyRecorder(InputStream in, int limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1 && recorded.size() < limit) {
+                recorded.write(b);
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0 && recorded.size() < limit) {
+                recorded.write(b, off, Math.min(read, limit - recorded.size()));
+            }
+
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            //Skipped bytes are read to be recorded
+            byte[] buffer = new byte[(int) Math.min(n, 4096)];
+            int read = n > 0 ? read(buffer, 0, buffer.length) : 0;
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        byte[] getRecorded() {
+            return recorded.toByteArray();
+        }
+    }
+
+    private void add(RecordedRequest request) {
+        int slot = (int) (request.getSequence() % capacity);
+        RecordedRequest evicted = ring.getAndSet(slot, request);
+        addToIndex(pathIndex, request.getPath(), request);
+        addToIndex(methodIndex, request.getMethod(), request);
+
+        if (evicted != null) {
+            evictedCount.incrementAndGet();
+            removeFromIndex(pathIndex, evicted.getPath(), evicted);
+            removeFromIndex(methodIndex, evicted.getMethod(), evicted);
+        }
+    }
+
+    private static void addToIndex(ConcurrentHashMap<String, Queue<RecordedRequest>> index, String key, RecordedRequest request) {
+        Queue<RecordedRequest> queue = index.get(key);
+        if (queue == null) {
+            Queue<RecordedRequest> newQueue = new ConcurrentLinkedQueue<RecordedRequest>();
+            queue = index.putIfAbsent(key, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+
+        queue.add(request);
+    }
+
+    private static void removeFromIndex(ConcurrentHashMap<String, Queue<RecordedRequest>> index, String key, RecordedRequest evicted) {
+        Queue<RecordedRequest> queue = index.get(key);
+        if (queue == null) {
+            return;
+        }
+
+        //Requests are added to queue almost in order of sequence, so evicted one is usually at the head
+        RecordedRequest head = queue.peek();
+        if (head == evicted) {
+            queue.poll();
+        } else {
+            queue.remove(evicted);
+        }
+
+        if (queue.isEmpty() && index.remove(key, queue) && !queue.isEmpty()) {
+            //Request was added concurrently, move it to the new queue
+            for (RecordedRequest request: queue) {
+                addToIndex(index, key, request);
+            }
+        }
+    }
+
+    private List<RecordedRequest> retained(Iterable<RecordedRequest> candidates, String method, String path) {
+        List<RecordedRequest> result = new ArrayList<RecordedRequest>();
+        for (RecordedRequest request: candidates) {
+            if (request != null && ring.get((int) (request.getSequence() % capacity)) == request
+                    && (method == null || method.equals(request.getMethod()))
+                    && (path == null || path.equals(request.getPath()))) {
+                result.add(request);
+            }
+        }
+
+        Collections.sort(result, SEQUENCE_ORDER);
+        return result;
+    }
+
+    /**
+     * Return kept requests with given method and path in order of arrival
+     *
+     * @param method HTTP method, {@code null} means any method
+     * @param path exact request path without query, {@code null} means any path
+     * @return matching requests
+     */
+    public List<RecordedRequest> find(String method, String path) {
+        if (path != null) {
+            Queue<RecordedRequest> queue = pathIndex.get(path);
+            return queue != null ? retained(queue, method, path) : new ArrayList<RecordedRequest>();
+        } else if (method != null) {
+            Queue<RecordedRequest> queue = methodIndex.get(method);
+            return queue != null ? retained(queue, method, null) : new ArrayList<RecordedRequest>();
+        }
+
+        return getAll();
+    }
+
+    /**
+     * Return count of kept requests with given method and path
+     *
+     * @param method HTTP method, {@code null} means any method
+     * @param path exact request path without query, {@code null} means any path
+     * @return count of matching requests
+     */
+    public int count(String method, String path) {
+        return find(method, path).size();
+    }
+
+    /**
+     * Return all kept requests in order of arrival
+     *
+     * @return requests
+     */
+    public List<RecordedRequest> getAll() {
+        List<RecordedRequest> all = new ArrayList<RecordedRequest>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            all.add(ring.get(i));
+        }
+
+        return retained(all, null, null);
+    }
+
+    /**
+     * Return count of requests recorded since journal was created,
+     * including evicted and cleared ones
+     *
+     * @return count of recorded requests
+     */
+    public long getTotalCount() {
+        return nextSequence.get();
+    }
+
+    /**
+     * Return count of requests evicted because journal was full
+     *
+     * @return count of evicted requests
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Remove all requests from journal
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < capacity; i++) {
+            ring.set(i, null);
+        }
+
+        pathIndex.clear();
+        methodIndex.clear();
+    }
+}
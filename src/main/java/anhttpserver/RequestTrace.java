@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Timestamps of request processing phases and
+ * <a href="https://www.w3.org/TR/trace-context/">W3C trace context</a> of the request.</p>
+ *
+ * <p>Timestamps are kept in a fixed array and taken with {@link System#nanoTime()},
+ * trace context is parsed from {@code traceparent} request header
+ * only when it is asked for, so tracing is cheap enough to stay enabled.</p>
+ *
+ * <p>Use {@link #getTraceParent()} as value of {@code traceparent} header
+ * of requests which handler sends to other services.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public final class RequestTrace {
+
+    public static final String TRACEPARENT_HEADER_NAME = "traceparent";
+
+    /** Connection has data of the request and is submitted to executor of the server which reads it */
+    public static final int RECEIVED = 0;
+    /** Request is taken by thread which processes it, after waiting for executor of the server and executor of the route */
+    public static final int DISPATCHED = 1;
+    /** Handler is asked for response */
+    public static final int HANDLER_STARTED = 2;
+    /** Handler returned response */
+    public static final int HANDLER_COMPLETED = 3;
+    /** Response code and headers are sent */
+    public static final int HEADERS_SENT = 4;
+    /** Response body is written */
+    public static final int COMPLETED = 5;
+
+    static final int PHASES_COUNT = 6;
+
+    //Names of intervals which end with corresponding phase
+    private static final String[] INTERVAL_NAMES = {null, "queue", "prepare", "handler", "headers", "write"};
+
+    private static final String TRACEPARENT_VERSION = "00";
+    private static final String SAMPLED_FLAGS = "01";
+    private static final int TRACEPARENT_LENGTH = 55;
+
+    private final long[] timestamps = new long[PHASES_COUNT];
+    private final String incomingTraceParent;
+
+    //Trace context, initialized on demand
+    private String traceId;
+    private String parentId;
+    private String spanId;
+    private String flags;
+
+    RequestTrace(String incomingTraceParent) {
+        this(incomingTraceParent, System.nanoTime());
+    }
+
+    RequestTrace(String incomingTraceParent, long receivedTime) {
+        this.incomingTraceParent = incomingTraceParent;
+        timestamps[RECEIVED] = receivedTime;
+    }
+
+    void mark(int phase) {
+        timestamps[phase] = System.nanoTime();
+    }
+
+    /**
+     * Return {@link System#nanoTime()} when request reached given phase
+     *
+     * @param phase one of phase constants
+     * @return timestamp in nanoseconds or {@code 0} if request did not reach this phase
+     */
+    public long getTimestamp(int phase) {
+        return timestamps[phase];
+    }
+
+    /**
+     * Return time between two phases
+     *
+     * @param fromPhase start phase
+     * @param toPhase end phase
+     * @param unit unit of returned value
+     * @return time between phases or {@code -1} if request did not reach one of them
+     */
+    public long getDuration(int fromPhase, int toPhase, TimeUnit unit) {
+        if (timestamps[fromPhase] == 0 || timestamps[toPhase] == 0) {
+            return -1;
+        }
+
+        return unit.convert(timestamps[toPhase] - timestamps[fromPhase], TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Return time since request was received till it was completed, or till now if it is not completed
+     *
+     * @param unit unit of returned value
+     * @return elapsed time
+     */
+    public long getElapsed(TimeUnit unit) {
+        long end = timestamps[COMPLETED] != 0 ? timestamps[COMPLETED] : System.nanoTime();
+        return unit.convert(end - timestamps[RECEIVED], TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Return trace id from {@code traceparent} request header
+     * or new trace id if header is absent or invalid
+     *
+     * @return 32 hex digits trace id
+     */
+    public String getTraceId() {
+        parseTraceParent();
+        return traceId;
+    }
+
+    /**
+     * Return id of the caller span from {@code traceparent} request header
+     *
+     * @return 16 hex digits span id or {@code null} if request has no valid {@code traceparent} header
+     */
+    public String getParentId() {
+        parseTraceParent();
+        return parentId;
+    }
+
+    /**
+     * Return id of the span of this request
+     *
+     * @return 16 hex digits span id
+     */
+    public String getSpanId() {
+        parseTraceParent();
+        return spanId;
+    }
+
+    /**
+     * Return value of {@code traceparent} header for requests sent while processing this request
+     *
+     * @return {@code traceparent} header value
+     */
+    public String getTraceParent() {
+        parseTraceParent();
+        return new StringBuilder(TRACEPARENT_LENGTH).append(TRACEPARENT_VERSION)
+                .append('-').append(traceId).append('-').append(spanId).append('-').append(flags).toString();
+    }
+
+    private void parseTraceParent() {
+        if (spanId != null) {
+            return;
+        }
+
+        String header = incomingTraceParent != null ? incomingTraceParent.trim() : null;
+        //Future versions may append fields, so only the prefix of known format is checked
+        if (header != null && header.length() >= TRACEPARENT_LENGTH
+                && (header.length() == TRACEPARENT_LENGTH || header.charAt(TRACEPARENT_LENGTH) == '-')
+                && header.charAt(2) == '-' && header.charAt(35) == '-' && header.charAt(52) == '-'
+                && isHex(header, 0, 2) && !header.startsWith("ff")
+                && isHex(header, 3, 35) && !isZero(header, 3, 35)
+                && isHex(header, 36, 52) && !isZero(header, 36, 52)
+                && isHex(header, 53, 55)) {
+            traceId = header.substring(3, 35);
+            parentId = header.substring(36, 52);
+            flags = header.substring(53, 55);
+        } else {
+            traceId = randomHex(2);
+            flags = SAMPLED_FLAGS;
+        }
+
+        spanId = randomHex(1);
+    }
+
+    private static boolean isHex(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isZero(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) != '0') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static String randomHex(int longs) {
+        StringBuilder sb = new StringBuilder(longs * 16);
+        for (int i = 0; i < longs; i++) {
+            long value = ThreadLocalRandom.current().nextLong();
+            if (value == 0) {
+                value = 1;
+            }
+
+            String hex = Long.toHexString(value);
+            for (int j = hex.length(); j < 16; j++) {
+                sb.append('0');
+            }
+
+            sb.append(hex);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Return breakdown of request time by phases, for example
+     * {@code queue=0.02ms prepare=0.01ms handler=120.50ms headers=0.10ms write=3.21ms}.
+     * Phases which request did not reach are skipped.
+     *
+     * @return time breakdown
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        long previous = timestamps[RECEIVED];
+        for (int phase = DISPATCHED; phase < PHASES_COUNT; phase++) {
+            if (timestamps[phase] != 0) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+
+                sb.append(INTERVAL_NAMES[phase]).append('=')
+                        .append(String.format("%.2f", (timestamps[phase] - previous) / 1000000.0)).append("ms");
+                previous = timestamps[phase];
+            }
+        }
+
+        return sb.toString();
+    }
+}
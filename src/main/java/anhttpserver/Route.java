@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Handler registered for a path together with its filters.
+ *
+ * <p>Global and route filters are compiled into a single array
+ * when route is registered or global filters are changed,
+ * so nothing is computed per request. Route without filters
+ * is dispatched directly to its handler.</p>
+ *
+ * @author Sergey Prilukin
+ */
+final class Route {
+
+    static final HttpFilter[] NO_FILTERS = new HttpFilter[0];
+
+    private final HttpHandler handler;
+    private final HttpFilter[] routeFilters;
+    private final VirtualHost virtualHost;
+    private final Executor executor;
+    private volatile HttpFilter[] filters;
+
+    Route(HttpHandler handler, HttpFilter[] routeFilters, HttpFilter[] globalFilters,
+          VirtualHost virtualHost, Executor executor) {
+        this.handler = handler;
+        this.virtualHost = virtualHost;
+        this.executor = executor;
+        this.routeFilters = routeFilters != null ? routeFilters.clone() : NO_FILTERS;
+        compile(globalFilters);
+    }
+
+    /**
+     * Rebuild filters array: global filters first, then filters of this route
+     *
+     * @param globalFilters filters applied to all routes
+     */
+    void compile(HttpFilter[] globalFilters) {
+        HttpFilter[] compiled = new HttpFilter[globalFilters.length + routeFilters.length];
+        System.arraycopy(globalFilters, 0, compiled, 0, globalFilters.length);
+        System.arraycopy(routeFilters, 0, compiled, globalFilters.length, routeFilters.length);
+        filters = compiled.length > 0 ? compiled : NO_FILTERS;
+    }
+
+    HttpHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Return executor which should process requests of this route:
+     * executor of the route itself or executor of its virtual host
+     *
+     * @return executor or {@code null} if request should be processed by server thread
+     */
+    Executor getExecutor() {
+        return executor != null ? executor : virtualHost.getExecutor();
+    }
+
+    /**
+     * Check whether route has neither its own filters nor its own executor
+     *
+     * @return {@code true} if route consists of handler only
+     */
+    boolean isHandlerOnly() {
+        return routeFilters.length == 0 && executor == null;
+    }
+
+    boolean hasFilters() {
+        return filters.length > 0;
+    }
+
+    /**
+     * Create chain of filters of this route for a single request
+     *
+     * @return new filter chain
+     */
+    FilterChain newFilterChain() {
+        return new FilterChain(filters, handler);
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Key-value store and counters shared by handlers of several servers,
+ * for example stateful mocks behind a load balancer.</p>
+ *
+ * <p>Reads are served from local copy of the state. Writes are applied locally
+ * and queued, queue is sent to other nodes in batches by {@link StateTransport}
+ * either periodically or on {@link #flush()}. Only the latest write of every key
+ * is sent. Values are replicated with last-writer-wins rule,
+ * counters are kept as a share per node, so concurrent increments are never lost.</p>
+ *
+ * <p>
+ *     Example of usage:<br/>
+ *
+ *     <pre>
+ *         StateTransport transport = new LoopbackStateTransport();
+ *         SharedState state1 = new SharedState("node1", transport);
+ *         SharedState state2 = new SharedState("node2", transport);
+ *         server1.addSharedState(state1);
+ *         server2.addSharedState(state2);
+ *     </pre>
+ * </p>
+ *
+ * @author Sergey Prilukin
+ */
+public final class SharedState {
+
+    public static final long DEFAULT_REPLICATION_INTERVAL = 50; //50 ms
+
+    private static final Log log = LogFactory.getLog(SharedState.class);
+
+    private final String nodeId;
+    private final StateTransport transport;
+
+    private final Map<String, StateUpdate> values = new ConcurrentHashMap<String, StateUpdate>();
+
+    //key -> node id -> share of the counter
+    private final Map<String, Map<String, StateUpdate>> counters = new ConcurrentHashMap<String, Map<String, StateUpdate>>();
+
+    //Latest local update of every changed entry which is not sent yet
+    private final Map<String, StateUpdate> pendingValues = new ConcurrentHashMap<String, StateUpdate>();
+    private final Map<String, StateUpdate> pendingCounters = new ConcurrentHashMap<String, StateUpdate>();
+
+    private final AtomicLong lastVersion = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong appliedCount = new AtomicLong();
+    private ScheduledFuture<?> replication;
+
+    /**
+     * Create node and connect it to the cluster
+     *
+     * @param nodeId id of the node unique in the cluster
+     * @param transport transport of the cluster
+     */
+    public SharedState(String nodeId, StateTransport transport) {
+        this.nodeId = nodeId;
+        this.transport = transport;
+        transport.connect(this);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    private long nextVersion() {
+        //Wall clock orders writes of different nodes, counter orders writes of this node
+        while (true) {
+            long last = lastVersion.get();
+            long next = Math.max(last + 1, System.currentTimeMillis());
+            if (lastVersion.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Return value of key
+     *
+     * @param key key
+     * @return value or {@code null} if there is no such key
+     */
+    public String get(String key) {
+        StateUpdate entry = values.get(key);
+        return entry != null ? entry.getValue() : null;
+    }
+
+    /**
+     * Set value of key
+     *
+     * @param key key
+     * @param value value, {@code null} removes the key
+     */
+    public void put(String key, String value) {
+        synchronized (values) {
+            StateUpdate update = new StateUpdate(StateUpdate.Type.VALUE, key, value, 0, nextVersion(), nodeId);
+            values.put(key, update);
+            pendingValues.put(key, update);
+        }
+    }
+
+    public void remove(String key) {
+        put(key, null);
+    }
+
+    /**
+     * Add delta to counter
+     *
+     * @param key name of the counter
+     * @param delta value to add
+     * @return value of the counter including increments of other nodes received so far
+     */
+    public long increment(String key, long delta) {
+        synchronized (counters) {
+            Map<String, StateUpdate> shares = getShares(key);
+            StateUpdate share = shares.get(nodeId);
+            StateUpdate update = new StateUpdate(StateUpdate.Type.COUNTER, key, null,
+                    (share != null ? share.getCounter() : 0) + delta, nextVersion(), nodeId);
+            shares.put(nodeId, update);
+            pendingCounters.put(key, update);
+        }
+
+        return getCounter(key);
+    }
+
+    /**
+     * Return value of counter
+     *
+     * @param key name of the counter
+     * @return sum of increments of all nodes received so far
+     */
+    public long getCounter(String key) {
+        Map<String, StateUpdate> shares = counters.get(key);
+        long sum = 0;
+        if (shares != null) {
+            for (StateUpdate share: shares.values()) {
+                sum += share.getCounter();
+            }
+        }
+
+        return sum;
+    }
+
+    private Map<String, StateUpdate> getShares(String key) {
+        Map<String, StateUpdate> shares = counters.get(key);
+        if (shares == null) {
+            shares = new ConcurrentHashMap<String, StateUpdate>();
+            counters.put(key, shares);
+        }
+
+        return shares;
+    }
+
+    /**
+     * Apply updates received from other node, called by {@link StateTransport}
+     *
+     * @param updates updates of other node
+     */
+    public void apply(List<StateUpdate> updates) {
+        for (StateUpdate update: updates) {
+            if (update.getType() == StateUpdate.Type.VALUE) {
+                synchronized (values) {
+                    if (update.isNewerThan(values.get(update.getKey()))) {
+                        values.put(update.getKey(), update);
+                    }
+                }
+            } else {
+                synchronized (counters) {
+                    Map<String, StateUpdate> shares = getShares(update.getKey());
+                    if (update.isNewerThan(shares.get(update.getNodeId()))) {
+                        shares.put(update.getNodeId(), update);
+                    }
+                }
+            }
+
+            //Keep local clock ahead of clocks of other nodes
+            long last;
+            do {
+                last = lastVersion.get();
+            } while (update.getVersion() > last && !lastVersion.compareAndSet(last, update.getVersion()));
+        }
+
+        appliedCount.addAndGet(updates.size());
+    }
+
+    /**
+     * Send queued updates to other nodes.
+     * If transport fails, updates which were not changed since are queued again.
+     */
+    public void flush() {
+        List<StateUpdate> batch = new ArrayList<StateUpdate>();
+        drain(pendingValues, batch);
+        drain(pendingCounters, batch);
+
+        if (!batch.isEmpty()) {
+            try {
+                transport.publish(this, batch);
+            } catch (RuntimeException e) {
+                requeue(batch);
+                throw e;
+            }
+
+            sentCount.addAndGet(batch.size());
+        }
+    }
+
+    private static void drain(Map<String, StateUpdate> pending, List<StateUpdate> batch) {
+        for (String key: pending.keySet()) {
+            StateUpdate update = pending.remove(key);
+            if (update != null) {
+                batch.add(update);
+            }
+        }
+    }
+
+    private void requeue(List<StateUpdate> batch) {
+        for (StateUpdate update: batch) {
+            if (update.getType() == StateUpdate.Type.VALUE) {
+                synchronized (values) {
+                    requeue(pendingValues, update);
+                }
+            } else {
+                synchronized (counters) {
+                    requeue(pendingCounters, update);
+                }
+            }
+        }
+    }
+
+    private static void requeue(Map<String, StateUpdate> pending, StateUpdate update) {
+        //Update queued after the batch was drained is newer
+        if (!pending.containsKey(update.getKey())) {
+            pending.put(update.getKey(), update);
+        }
+    }
+
+    /**
+     * Send queued updates periodically
+     *
+     * @param scheduler scheduler which will send updates
+     * @param interval interval between batches in milliseconds
+     */
+    public synchronized void startReplication(ScheduledExecutorService scheduler, long interval) {
+        if (replication == null || replication.isDone()) {
+            replication = scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        flush();
+                    } catch (RuntimeException e) {
+                        //Exception would cancel the task, keep replicating and retry with next batch
+                        log.error(String.format("Replication of node %s failed", nodeId), e);
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop periodical replication and send queued updates
+     */
+    public synchronized void stopReplication() {
+        if (replication != null) {
+            replication.cancel(false);
+            replication = null;
+        }
+
+        flush();
+    }
+
+    /**
+     * Stop replication and disconnect node from the cluster
+     */
+    public void close() {
+        stopReplication();
+        transport.disconnect(this);
+    }
+
+    /**
+     * Return count of changed entries waiting to be sent
+     *
+     * @return count of queued updates
+     */
+    public int getPendingCount() {
+        return pendingValues.size() + pendingCounters.size();
+    }
+
+    /**
+     * Return count of updates sent to other nodes
+     *
+     * @return count of sent updates
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * Return count of updates received from other nodes
+     *
+     * @return count of received updates
+     */
+    public long getAppliedCount() {
+        return appliedCount.get();
+    }
+}
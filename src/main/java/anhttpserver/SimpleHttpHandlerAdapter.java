@@ -25,8 +25,10 @@ package anhttpserver;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -37,17 +39,6 @@ import java.util.Map;
  */
 public abstract class SimpleHttpHandlerAdapter implements HttpHandler {
 
-    /**
-     * Returns thread-specific request key to put something into
-     * HTTP request attributes since they're not thread safe
-     *
-     * @param key not thread-specific attribute key
-     * @return
-     */
-    private String getThreadSpecificAttributeKey(String key) {
-        String threadSpecificSuffix = String.valueOf(Thread.currentThread().getName().hashCode());
-        return (new StringBuilder(key)).append(threadSpecificSuffix).toString();
-    }
     /**
      * Retreive map with response headers from contextAttributes
      *
@@ -56,11 +47,10 @@ public abstract class SimpleHttpHandlerAdapter implements HttpHandler {
      * @return map where hndler can write response headers
      */
     protected Map<String, String> getResponseHeadersFromContext(HttpRequestContext httpRequestContext) {
-        String responseHeadersAttributeKey = getThreadSpecificAttributeKey(RESPONSE_HEADERS_ATTRIBUTE_KEY);
-        Map<String, String> headers = (Map<String, String>)httpRequestContext.getAttribute(responseHeadersAttributeKey);
+        Map<String, String> headers = (Map<String, String>)httpRequestContext.getAttribute(RESPONSE_HEADERS_ATTRIBUTE_KEY);
             if (headers == null) {
                 headers = new HashMap<String, String>();
-                httpRequestContext.setAttribute(responseHeadersAttributeKey, headers);
+                httpRequestContext.setAttribute(RESPONSE_HEADERS_ATTRIBUTE_KEY, headers);
             }
 
         return headers;
@@ -77,6 +67,26 @@ public abstract class SimpleHttpHandlerAdapter implements HttpHandler {
         }
     }
 
+    /**
+     * Add value of response header which may have several values,
+     * like {@code Set-Cookie}, every value is sent as a separate header.
+     *
+     * @param name name of the header
+     * @param value value of the header
+     * @param httpRequestContext instance of {@link HttpRequestContext} -
+     *  facade for {@link com.sun.net.httpserver.HttpExchange}
+     */
+    protected void addResponseHeader(String name, String value, HttpRequestContext httpRequestContext) {
+        Map<String, List<String>> headers = httpRequestContext.getMultiValueResponseHeaders(true);
+        List<String> values = headers.get(name);
+        if (values == null) {
+            values = new ArrayList<String>();
+            headers.put(name, values);
+        }
+
+        values.add(value);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -98,8 +108,7 @@ public abstract class SimpleHttpHandlerAdapter implements HttpHandler {
      * which means HTTP OK
      */
     public int getResponseCode(HttpRequestContext httpRequestContext) {
-        String responseCodeAttributeKey = getThreadSpecificAttributeKey(RESPONSE_CODE_ATTRIBUTE_KEY);
-        Object size = httpRequestContext.getAttribute(responseCodeAttributeKey);
+        Object size = httpRequestContext.getAttribute(RESPONSE_CODE_ATTRIBUTE_KEY);
         if (size != null) {
             return (Integer)size;
         }
@@ -115,8 +124,7 @@ public abstract class SimpleHttpHandlerAdapter implements HttpHandler {
      *  facade for {@link com.sun.net.httpserver.HttpExchange}
      */
     protected void setResponseCode(int code, HttpRequestContext httpRequestContext) {
-        String responseCodeAttributeKey = getThreadSpecificAttributeKey(RESPONSE_CODE_ATTRIBUTE_KEY);
-        httpRequestContext.setAttribute(responseCodeAttributeKey, code);
+        httpRequestContext.setAttribute(RESPONSE_CODE_ATTRIBUTE_KEY, code);
     }
 
     /**
@@ -127,8 +135,7 @@ public abstract class SimpleHttpHandlerAdapter implements HttpHandler {
      *  facade for {@link com.sun.net.httpserver.HttpExchange}
      */
     protected void setResponseSize(long size, HttpRequestContext httpRequestContext) {
-        String responseCodeAttributeKey = getThreadSpecificAttributeKey(RESPONSE_SIZE_ATTRIBUTE_KEY);
-        httpRequestContext.setAttribute(responseCodeAttributeKey, size);
+        httpRequestContext.setAttribute(RESPONSE_SIZE_ATTRIBUTE_KEY, size);
     }
 
     /**
@@ -140,8 +147,7 @@ public abstract class SimpleHttpHandlerAdapter implements HttpHandler {
      * @return response size
      */
     public long getResponseSize(HttpRequestContext httpRequestContext) {
-        String responseCodeAttributeKey = getThreadSpecificAttributeKey(RESPONSE_SIZE_ATTRIBUTE_KEY);
-        Object size = httpRequestContext.getAttribute(responseCodeAttributeKey);
+        Object size = httpRequestContext.getAttribute(RESPONSE_SIZE_ATTRIBUTE_KEY);
         if (size != null) {
             return (Long)size;
         } else {
@@ -151,9 +157,10 @@ public abstract class SimpleHttpHandlerAdapter implements HttpHandler {
 
     @Override
     public void cleanContext(HttpRequestContext httpRequestContext) {
-        httpRequestContext.setAttribute(getThreadSpecificAttributeKey(RESPONSE_HEADERS_ATTRIBUTE_KEY), null);
-        httpRequestContext.setAttribute(getThreadSpecificAttributeKey(RESPONSE_CODE_ATTRIBUTE_KEY), null);
-        httpRequestContext.setAttribute(getThreadSpecificAttributeKey(RESPONSE_SIZE_ATTRIBUTE_KEY), null);
+        httpRequestContext.setAttribute(RESPONSE_HEADERS_ATTRIBUTE_KEY, null);
+        httpRequestContext.setAttribute(RESPONSE_MULTI_VALUE_HEADERS_ATTRIBUTE_KEY, null);
+        httpRequestContext.setAttribute(RESPONSE_CODE_ATTRIBUTE_KEY, null);
+        httpRequestContext.setAttribute(RESPONSE_SIZE_ATTRIBUTE_KEY, null);
     }
 
     /**
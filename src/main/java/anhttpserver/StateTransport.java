@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.util.List;
+
+/**
+ * Transport which delivers updates of {@link SharedState} between nodes.
+ * Implementations should call {@link SharedState#apply(List)} of every other
+ * node connected to the same cluster. Delivery may be asynchronous,
+ * updates may be delivered more than once and in any order.
+ *
+ * @author Sergey Prilukin
+ */
+public interface StateTransport {
+
+    /**
+     * Connect node to the cluster
+     *
+     * @param node node which should receive updates of other nodes
+     */
+    public void connect(SharedState node);
+
+    /**
+     * Disconnect node from the cluster
+     *
+     * @param node node which should not receive updates anymore
+     */
+    public void disconnect(SharedState node);
+
+    /**
+     * Send batch of updates made by {@code sender} to other nodes.
+     *
+     * @param sender node which made updates
+     * @param updates updates to send
+     */
+    public void publish(SharedState sender, List<StateUpdate> updates);
+}
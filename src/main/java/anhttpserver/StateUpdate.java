@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+/**
+ * Replicated change of {@link SharedState} entry. Update carries the whole
+ * new state of the entry, so updates may be coalesced, repeated and reordered.
+ *
+ * @author Sergey Prilukin
+ */
+public final class StateUpdate {
+
+    /**
+     * Type of replicated entry
+     */
+    public enum Type {
+        /** Value set by {@link SharedState#put(String, String)}, {@code null} value means removed entry */
+        VALUE,
+        /** Share of counter incremented by node {@link #getNodeId()} */
+        COUNTER
+    }
+
+    private final Type type;
+    private final String key;
+    private final String value;
+    private final long counter;
+    private final long version;
+    private final String nodeId;
+
+    public StateUpdate(Type type, String key, String value, long counter, long version, String nodeId) {
+        this.type = type;
+        this.key = key;
+        this.value = value;
+        this.counter = counter;
+        this.version = version;
+        this.nodeId = nodeId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Return new value of {@link Type#VALUE} entry
+     *
+     * @return value or {@code null} if entry was removed
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Return share of {@link Type#COUNTER} entry which belongs to node {@link #getNodeId()}
+     *
+     * @return counter share
+     */
+    public long getCounter() {
+        return counter;
+    }
+
+    /**
+     * Return version of the entry, update with greater version wins,
+     * equal versions are ordered by node id
+     *
+     * @return version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Return id of node which made the change
+     *
+     * @return node id
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    boolean isNewerThan(StateUpdate other) {
+        return other == null || version > other.version
+                || (version == other.version && nodeId.compareTo(other.nodeId) > 0);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Immutable implementation of {@link HttpHandler} for constant responses.</p>
+ *
+ * <p>Response code, headers and body are prepared once when handler is created,
+ * so nothing is computed or encoded per request: {@link DefaultHttpServer}
+ * recognizes this handler and writes prepared body with a single write call.</p>
+ *
+ * <p>
+ *     Example of usage:<br/>
+ *
+ *     <pre>
+ *         server.addHandler("/index", new StaticResponseHandler("Hello world", Charset.forName("UTF-8")));
+ *     </pre>
+ * </p>
+ *
+ * @author Sergey Prilukin
+ */
+public final class StaticResponseHandler implements HttpHandler {
+
+    private final int responseCode;
+    private final Map<String, String> responseHeaders;
+    private final byte[] body;
+    private final PreparedHeaders preparedHeaders;
+
+    //Pair of default headers and default headers merged with response headers
+    private volatile PreparedHeaders[] mergedHeaders;
+
+    /**
+     * Create handler which responds with given code, headers and body
+     *
+     * @param responseCode response code {@see HttpURLConnection}
+     * @param responseHeaders response headers, may be {@code null}
+     * @param body response body, may be {@code null} for empty response
+     */
+    public StaticResponseHandler(int responseCode, Map<String, String> responseHeaders, byte[] body) {
+        this.responseCode = responseCode;
+        this.responseHeaders = responseHeaders != null && responseHeaders.size() > 0
+                ? Collections.unmodifiableMap(new LinkedHashMap<String, String>(responseHeaders))
+                : Collections.<String, String>emptyMap();
+        this.preparedHeaders = PreparedHeaders.of(this.responseHeaders);
+        this.body = body != null ? body.clone() : new byte[0];
+    }
+
+    /**
+     * Create handler which responds with HTTP OK and given body
+     *
+     * @param body response body
+     */
+    public StaticResponseHandler(byte[] body) {
+        this(HttpURLConnection.HTTP_OK, null, body);
+    }
+
+    /**
+     * Create handler which responds with HTTP OK and given string
+     * encoded with specified {@code charset}
+     *
+     * @param body response body
+     * @param charset charset which will be used to encode {@code body}
+     */
+    public StaticResponseHandler(String body, Charset charset) {
+        this(HttpURLConnection.HTTP_OK, null, body.getBytes(charset));
+    }
+
+    /**
+     * Return prepared response body.
+     * Returned array is shared between requests and should not be modified.
+     *
+     * @return response body
+     */
+    byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Return server default headers followed by headers of this response.
+     * Result is cached until server default headers are changed.
+     *
+     * @param defaultHeaders server default headers
+     * @return headers which should be sent with response
+     */
+    PreparedHeaders getPreparedHeaders(PreparedHeaders defaultHeaders) {
+        PreparedHeaders[] cached = mergedHeaders;
+        if (cached == null || cached[0] != defaultHeaders) {
+            cached = new PreparedHeaders[] {defaultHeaders, defaultHeaders.append(preparedHeaders)};
+            mergedHeaders = cached;
+        }
+
+        return cached[1];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, String> getResponseHeaders(HttpRequestContext httpRequestContext) {
+        return responseHeaders;
+    }
+
+    /**
+     * Response of this handler is immutable,
+     * so this method always throws {@link UnsupportedOperationException}
+     */
+    public void setResponseHeader(String name, String value, HttpRequestContext httpRequestContext) {
+        throw new UnsupportedOperationException("Static response can not be modified");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getResponseCode(HttpRequestContext httpRequestContext) {
+        return responseCode;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getResponseSize(HttpRequestContext httpRequestContext) {
+        return body.length;
+    }
+
+    /**
+     * Nothing is stored in context by this handler
+     */
+    public void cleanContext(HttpRequestContext httpRequestContext) {
+        /* nothing to clean */
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Prepared body is wrapped without copying.
+     */
+    public InputStream getResponse(HttpRequestContext httpRequestContext) throws IOException {
+        return new ByteArrayInputStream(body);
+    }
+}
@@ -23,6 +23,7 @@
 package anhttpserver;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 
 /**
  * Implementation of {@link HttpHandler}, which
@@ -32,6 +33,25 @@ import java.io.IOException;
  */
 public abstract class StringHandlerAdapter extends ByteArrayHandlerAdapter {
 
+    private final Charset charset;
+
+    /**
+     * Create adapter which encodes responses using platform default charset
+     */
+    public StringHandlerAdapter() {
+        this(null);
+    }
+
+    /**
+     * Create adapter which encodes responses using specified charset
+     *
+     * @param charset charset to encode responses with,
+     *  if {@code null} platform default charset will be used
+     */
+    public StringHandlerAdapter(Charset charset) {
+        this.charset = charset;
+    }
+
     /**
      * Implementations should override this method instead of {@link #getResponse(anhttpserver.HttpRequestContext)}
      *
@@ -46,10 +66,14 @@ public abstract class StringHandlerAdapter extends ByteArrayHandlerAdapter {
      * {@inheritDoc}
      *
      * in this implementation just call {@link #getResponseAsString(anhttpserver.HttpRequestContext)},
-     * and return bytes of result string.
+     * and return bytes of result string encoded with charset passed to constructor.
      */
     public final byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) throws IOException {
         String responseAsString = getResponseAsString(httpRequestContext);
-        return responseAsString != null ? responseAsString.getBytes() : null;
+        if (responseAsString == null) {
+            return null;
+        }
+
+        return charset != null ? responseAsString.getBytes(charset) : responseAsString.getBytes();
     }
 }
@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Response template compiled into literal parts already encoded into bytes
+ * and placeholders which are resolved for every request.</p>
+ *
+ * <p>Supported placeholders:
+ * <ul>
+ *     <li>{@code {{path.name}}} - segment of request path matching {@code {name}}
+ *     segment of path pattern, {@code {{path.0}}} - segment of request path by index</li>
+ *     <li>{@code {{query.name}}} - first value of query parameter</li>
+ *     <li>{@code {{header.name}}} - first value of request header</li>
+ *     <li>{@code {{body}}} - whole request body</li>
+ *     <li>{@code {{body.name}}} - field of JSON request body like {@code {{body.user.name}}},
+ *     or form parameter if body is not JSON</li>
+ *     <li>{@code {{counter}}}, {@code {{counter.name}}} - counter incremented on each rendering</li>
+ *     <li>{@code {{timestamp}}} - current time in milliseconds,
+ *     {@code {{now}}} - current time in ISO 8601 format</li>
+ * </ul>
+ * Placeholders which do not resolve to a value are rendered as empty strings.
+ * </p>
+ *
+ * <p>Values are rendered as is by default. Placeholder prefixed with {@code json},
+ * like {@code "{{json body.name}}"}, is escaped as content of JSON string,
+ * quotes around it are part of the template.</p>
+ *
+ * @author Sergey Prilukin
+ */
+public final class Template {
+
+    private static final String PLACEHOLDER_START = "{{";
+    private static final String PLACEHOLDER_END = "}}";
+    private static final String JSON_PREFIX = "json ";
+    private static final String ISO_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+
+    //Key of request attribute with parsed JSON body
+    private static final String JSON_BODY_ATTRIBUTE_KEY = "anhttpserver.template.json.body";
+    static final Object INVALID_JSON = new Object();
+
+    private static final String ASCII_SAMPLE = "azAZ09";
+
+    private static final ThreadLocal<SimpleDateFormat> ISO_DATE = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat format = new SimpleDateFormat(ISO_DATE_FORMAT);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return format;
+        }
+    };
+
+    private final Charset charset;
+    private final boolean asciiCompatible;
+
+    //literals[i] is followed by placeholders[i], last literal is not followed by placeholder
+    private final byte[][] literals;
+    private final Placeholder[] placeholders;
+    private final int literalsSize;
+
+    private Template(Charset charset, byte[][] literals, Placeholder[] placeholders) {
+        this.charset = charset;
+        this.asciiCompatible = Arrays.equals(ASCII_SAMPLE.getBytes(charset), ASCII_SAMPLE.getBytes(FormParser.DEFAULT_CHARSET));
+        this.literals = literals;
+        this.placeholders = placeholders;
+
+        int size = 0;
+        for (byte[] literal: literals) {
+            size += literal.length;
+        }
+
+        this.literalsSize = size;
+    }
+
+    /**
+     * Compile template encoded in UTF-8
+     *
+     * @param source template text
+     * @return compiled template
+     * @throws IllegalArgumentException if template contains unknown placeholder
+     */
+    public static Template compile(String source) {
+        return compile(source, FormParser.DEFAULT_CHARSET, null);
+    }
+
+    /**
+     * Compile template
+     *
+     * @param source template text
+     * @param charset charset of rendered response
+     * @param pathPattern pattern like {@code /users/{id}} which defines names of path segments, may be {@code null}
+     * @return compiled template
+     * @throws IllegalArgumentException if template contains unknown placeholder
+     */
+    public static Template compile(String source, Charset charset, String pathPattern) {
+        List<String> pathNames = pathPattern != null
+                ? Arrays.asList(MockRoute.splitPath(pathPattern)) : new ArrayList<String>();
+        Map<String, AtomicLong> counters = new HashMap<String, AtomicLong>();
+
+        List<byte[]> literals = new ArrayList<byte[]>();
+        List<Placeholder> placeholders = new ArrayList<Placeholder>();
+        int pos = 0;
+        while (true) {
+            int start = source.indexOf(PLACEHOLDER_START, pos);
+            int end = start > -1 ? source.indexOf(PLACEHOLDER_END, start) : -1;
+            if (end < 0) {
+                literals.add(source.substring(pos).getBytes(charset));
+                break;
+            }
+
+            literals.add(source.substring(pos, start).getBytes(charset));
+            String expression = source.substring(start + PLACEHOLDER_START.length(), end).trim();
+            if (expression.startsWith(JSON_PREFIX)) {
+                placeholders.add(escapeJson(compilePlaceholder(
+                        expression.substring(JSON_PREFIX.length()).trim(), charset, pathNames, counters)));
+            } else {
+                placeholders.add(compilePlaceholder(expression, charset, pathNames, counters));
+            }
+
+            pos = end + PLACEHOLDER_END.length();
+        }
+
+        return new Template(charset, literals.toArray(new byte[literals.size()][]),
+                placeholders.toArray(new Placeholder[placeholders.size()]));
+    }
+
+    private static Placeholder compilePlaceholder(String expression, final Charset charset, List<String> pathNames,
+                                                  Map<String, AtomicLong> counters) {
+        int dot = expression.indexOf('.');
+        String kind = dot > -1 ? expression.substring(0, dot) : expression;
+        final String name = dot > -1 ? expression.substring(dot + 1) : null;
+
+        if (kind.equals("path") && name != null) {
+            int index = pathNames.indexOf(MockRoute.PATH_PARAMETER_PREFIX + name + MockRoute.PATH_PARAMETER_SUFFIX);
+            if (index < 0) {
+                try {
+                    index = Integer.parseInt(name);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Unknown path parameter: " + expression);
+                }
+            }
+
+            final int segment = index;
+            return new Placeholder() {
+                String resolve(HttpRequestContext httpRequestContext) {
+                    String[] segments = MockRoute.splitPath(httpRequestContext.getRequestURI().getPath());
+                    return segment < segments.length ? segments[segment] : null;
+                }
+            };
+        } else if (kind.equals("query") && name != null) {
+            return new Placeholder() {
+                String resolve(HttpRequestContext httpRequestContext) {
+                    return httpRequestContext.getQueryParam(name);
+                }
+            };
+        } else if (kind.equals("header") && name != null) {
+            return new Placeholder() {
+                String resolve(HttpRequestContext httpRequestContext) {
+                    return httpRequestContext.getHeader(name);
+                }
+            };
+        } else if (kind.equals("body") && name == null) {
+            return new Placeholder() {
+                String resolve(HttpRequestContext httpRequestContext) throws IOException {
+                    return new String(httpRequestContext.getRequestBody(), charset);
+                }
+
+                @Override
+                void write(HttpRequestContext httpRequestContext, RenderBuffer buffer, Template template) {
+                    //Body is copied as is without decoding
+                    buffer.write(httpRequestContext.getRequestBody());
+                }
+            };
+        } else if (kind.equals("body")) {
+            final String jsonPath = "$." + name;
+            return new Placeholder() {
+                String resolve(HttpRequestContext httpRequestContext) throws IOException {
+                    String contentType = httpRequestContext.getContentType();
+                    if (contentType != null && contentType.endsWith("json")) {
+                        Object json = getJsonBody(httpRequestContext);
+                        Object value = json != INVALID_JSON ? Json.select(json, jsonPath) : null;
+                        return value != null ? value.toString() : null;
+                    }
+
+                    return httpRequestContext.getParameter(name);
+                }
+            };
+        } else if (kind.equals("counter")) {
+            String counterName = name != null ? name : "";
+            AtomicLong counter = counters.get(counterName);
+            if (counter == null) {
+                counter = new AtomicLong();
+                counters.put(counterName, counter);
+            }
+
+            final AtomicLong value = counter;
+            return new Placeholder() {
+                String resolve(HttpRequestContext httpRequestContext) {
+                    return Long.toString(value.incrementAndGet());
+                }
+            };
+        } else if (kind.equals("timestamp") && name == null) {
+            return new Placeholder() {
+                String resolve(HttpRequestContext httpRequestContext) {
+                    return Long.toString(System.currentTimeMillis());
+                }
+            };
+        } else if (kind.equals("now") && name == null) {
+            return new Placeholder() {
+                String resolve(HttpRequestContext httpRequestContext) {
+                    return ISO_DATE.get().format(new Date());
+                }
+            };
+        }
+
+        throw new IllegalArgumentException("Unknown placeholder: " + expression);
+    }
+
+    private static Placeholder escapeJson(final Placeholder placeholder) {
+        return new Placeholder() {
+            String resolve(HttpRequestContext httpRequestContext) throws IOException {
+                String value = placeholder.resolve(httpRequestContext);
+                if (value == null) {
+                    return null;
+                }
+
+                StringBuilder sb = new StringBuilder(value.length() + 16);
+                Json.escape(value, sb);
+                return sb.toString();
+            }
+        };
+    }
+
+    /**
+     * Return request body parsed as JSON, result is cached in request attributes
+     *
+     * @return parsed body or {@link #INVALID_JSON}
+     */
+    static Object getJsonBody(HttpRequestContext httpRequestContext) {
+        Object json = httpRequestContext.getAttribute(JSON_BODY_ATTRIBUTE_KEY);
+        if (json == null) {
+            try {
+                json = Json.parse(new String(httpRequestContext.getRequestBody(), FormParser.DEFAULT_CHARSET));
+            } catch (IllegalArgumentException e) {
+                json = null;
+            }
+
+            json = json != null ? json : INVALID_JSON;
+            httpRequestContext.setAttribute(JSON_BODY_ATTRIBUTE_KEY, json);
+        }
+
+        return json;
+    }
+
+    /**
+     * Render template into byte array
+     *
+     * @param httpRequestContext request for which template is rendered
+     * @return rendered response
+     * @throws IOException if request body could not be read
+     */
+    public byte[] render(HttpRequestContext httpRequestContext) throws IOException {
+        RenderBuffer buffer = new RenderBuffer(literalsSize + 16 * placeholders.length);
+        render(httpRequestContext, buffer);
+        return buffer.toByteArray();
+    }
+
+    void render(HttpRequestContext httpRequestContext, RenderBuffer buffer) throws IOException {
+        for (int i = 0; i < placeholders.length; i++) {
+            buffer.write(literals[i]);
+            placeholders[i].write(httpRequestContext, buffer, this);
+        }
+
+        buffer.write(literals[placeholders.length]);
+    }
+
+    /**
+     * Return charset of rendered response
+     *
+     * @return charset
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    private abstract static class Placeholder {
+        abstract String resolve(HttpRequestContext httpRequestContext) throws IOException;
+
+        void write(HttpRequestContext httpRequestContext, RenderBuffer buffer, Template template) throws IOException {
+            String value = resolve(httpRequestContext);
+            if (value != null) {
+                buffer.write(value, template.charset, template.asciiCompatible);
+            }
+        }
+    }
+
+    /**
+     * Growable byte buffer which can be reused between renderings
+     */
+    static final class RenderBuffer {
+        private byte[] buf;
+        private int count;
+
+        RenderBuffer(int capacity) {
+            buf = new byte[Math.max(capacity, 16)];
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(capacity, buf.length * 2));
+            }
+        }
+
+        void write(byte[] bytes) {
+            ensureCapacity(count + bytes.length);
+            System.arraycopy(bytes, 0, buf, count, bytes.length);
+            count += bytes.length;
+        }
+
+        void write(String value, Charset charset, boolean asciiCompatible) {
+            //ASCII characters are written without encoder if charset encodes them as single bytes
+            ensureCapacity(count + value.length());
+            int i = 0;
+            for (; asciiCompatible && i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+
+                buf[count++] = (byte) c;
+            }
+
+            if (i < value.length()) {
+                write(value.substring(i).getBytes(charset));
+            }
+        }
+
+        void reset() {
+            count = 0;
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+
+        int size() {
+            return count;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+    }
+}
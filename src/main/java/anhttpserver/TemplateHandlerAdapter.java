@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Implementation of {@link HttpHandler} which renders {@link Template}.
+ * Template is rendered into a pooled buffer which is returned to the pool
+ * when server closes the response, so rendering does not create intermediate strings
+ * or copies of the response.</p>
+ *
+ * <p>
+ *     Example of usage:<br/>
+ *
+ *     <pre>
+ *         server.addHandler("/users", new TemplateHandlerAdapter(
+ *                 Template.compile("{\"id\": \"{{path.1}}\", \"request\": {{counter}}}"), "application/json"));
+ *     </pre>
+ * </p>
+ *
+ * @author Sergey Prilukin
+ */
+public class TemplateHandlerAdapter extends SimpleHttpHandlerAdapter {
+
+    //Buffers bigger than this are not returned to the pool
+    private static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS_COUNT = 64;
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private static final Queue<Template.RenderBuffer> pool = new ConcurrentLinkedQueue<Template.RenderBuffer>();
+    private static final AtomicInteger poolSize = new AtomicInteger();
+
+    private final Template template;
+    private final String contentType;
+
+    /**
+     * Create handler which renders given template
+     *
+     * @param template compiled template
+     */
+    public TemplateHandlerAdapter(Template template) {
+        this(template, null);
+    }
+
+    /**
+     * Create handler which renders given template
+     *
+     * @param template compiled template
+     * @param contentType value of {@code Content-Type} response header without charset,
+     *                    charset of the template is appended to it
+     */
+    public TemplateHandlerAdapter(Template template, String contentType) {
+        this.template = template;
+        this.contentType = contentType != null ? contentType + "; charset=" + template.getCharset().name() : null;
+    }
+
+    /**
+     * Return template to render for the request, by default template passed to constructor.
+     *
+     * @param httpRequestContext instance of {@link HttpRequestContext} -
+     *  facade for {@link com.sun.net.httpserver.HttpExchange}
+     * @return template
+     */
+    protected Template getTemplate(HttpRequestContext httpRequestContext) {
+        return template;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * in this implementation renders template and sets response size to size of the result
+     */
+    public final InputStream getResponse(HttpRequestContext httpRequestContext) throws IOException {
+        final Template.RenderBuffer buffer = acquireBuffer();
+        try {
+            getTemplate(httpRequestContext).render(httpRequestContext, buffer);
+        } catch (IOException e) {
+            releaseBuffer(buffer);
+            throw e;
+        } catch (RuntimeException e) {
+            releaseBuffer(buffer);
+            throw e;
+        }
+
+        if (contentType != null) {
+            setResponseHeader(HttpRequestContext.CONTENT_TYPE_HEADER_NAME, contentType, httpRequestContext);
+        }
+
+        //Don't set response size if it was already set.
+        if (getResponseSize(httpRequestContext) == 0) {
+            setResponseSize(buffer.size(), httpRequestContext);
+        }
+
+        return new ByteArrayInputStream(buffer.getBuffer(), 0, buffer.size()) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    releaseBuffer(buffer);
+                }
+            }
+        };
+    }
+
+    private static Template.RenderBuffer acquireBuffer() {
+        Template.RenderBuffer buffer = pool.poll();
+        if (buffer == null) {
+            return new Template.RenderBuffer(INITIAL_BUFFER_SIZE);
+        }
+
+        poolSize.decrementAndGet();
+        buffer.reset();
+        return buffer;
+    }
+
+    private static void releaseBuffer(Template.RenderBuffer buffer) {
+        if (buffer.getBuffer().length <= MAX_POOLED_BUFFER_SIZE
+                && poolSize.incrementAndGet() <= MAX_POOLED_BUFFERS_COUNT) {
+            pool.offer(buffer);
+        } else if (buffer.getBuffer().length <= MAX_POOLED_BUFFER_SIZE) {
+            poolSize.decrementAndGet();
+        }
+    }
+}
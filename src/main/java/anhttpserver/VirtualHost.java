@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Table of routes served for a single value of {@code Host} request header,
+ * with optional executor dedicated to its requests.
+ *
+ * @author Sergey Prilukin
+ */
+final class VirtualHost {
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<String, Route>();
+    private volatile Executor executor;
+
+    /**
+     * Find route for the longest registered path which is a prefix of {@code path}
+     *
+     * @param path request path
+     * @return route or {@code null} if there is no route for path
+     */
+    Route findRoute(String path) {
+        StringBuilder sb = new StringBuilder(path);
+        while (sb.lastIndexOf(DefaultHttpServer.PATH_DELIMITER) > -1) {
+            Route route = routes.get(sb.toString());
+            if (route != null) {
+                return route;
+            } else if (sb.length() == 1) {
+                //root path has been checked
+                break;
+            }
+
+            sb.delete(sb.lastIndexOf(DefaultHttpServer.PATH_DELIMITER), sb.length());
+            if (sb.length() == 0) {
+                sb.append(DefaultHttpServer.PATH_DELIMITER);
+            }
+        }
+
+        return null;
+    }
+
+    void addRoute(String path, Route route) {
+        routes.put(path, route);
+    }
+
+    void removeRoute(String path) {
+        routes.remove(path);
+    }
+
+    void clearRoutes() {
+        routes.clear();
+    }
+
+    Collection<Route> getRoutes() {
+        return routes.values();
+    }
+
+    Map<String, Route> getRoutesByPath() {
+        return Collections.unmodifiableMap(routes);
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Return host name from {@code Host} header value in lower case without port
+     *
+     * @param host value of {@code Host} header, may be {@code null}
+     * @return normalized host name or {@code null}
+     */
+    static String normalizeHost(String host) {
+        if (host == null) {
+            return null;
+        }
+
+        int portDelimiter = host.lastIndexOf(':');
+        //IPv6 address is enclosed in brackets and contains colons itself
+        if (portDelimiter > host.lastIndexOf(']')) {
+            host = host.substring(0, portDelimiter);
+        }
+
+        return host.trim().toLowerCase();
+    }
+}
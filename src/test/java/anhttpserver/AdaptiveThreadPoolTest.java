@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link AdaptiveThreadPool}
+ *
+ * @author Sergey Prilukin
+ */
+public class AdaptiveThreadPoolTest {
+
+    private DefaultHttpServer server;
+
+    @Before
+    public void init() {
+        server = new DefaultHttpServer();
+        server.setPort(0);
+        server.setMaxThreads(4);
+        server.setMinThreads(1);
+        server.start();
+    }
+
+    @After
+    public void finish() {
+        server.stop();
+    }
+
+    private String getResult(URLConnection connection) throws Exception {
+        InputStream is = connection.getInputStream();
+        String result = IOUtils.toString(is);
+        is.close();
+        return result;
+    }
+
+    private String getResult(String urlString) throws Exception {
+        return getResult(getConnection(urlString));
+    }
+
+    private URLConnection getConnection(String urlString) throws Exception {
+        return (new URL(urlString)).openConnection();
+    }
+
+    @Test
+    public void adaptiveThreadPoolTest() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        server.addHandler("/", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+
+                return "done";
+            }
+        });
+
+        AdaptiveThreadPool pool = server.getThreadPool();
+        assertEquals(1, pool.getPoolSize());
+
+        List<CompletableFuture<String>> responses = new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 3; i++) {
+            responses.add(CompletableFuture.supplyAsync(new Supplier<String>() {
+                public String get() {
+                    try {
+                        return getResult(server.getBaseUrl() + "/");
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }));
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getQueuedCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        pool.sample();
+        assertEquals(1, pool.getGrowCount());
+        assertEquals(2, pool.getPoolSize());
+        assertEquals(1.0, pool.getUtilization(), 0.0);
+
+        release.countDown();
+        for (CompletableFuture<String> response: responses) {
+            assertEquals("done", response.get(5, TimeUnit.SECONDS));
+        }
+
+        deadline = System.currentTimeMillis() + 5000;
+        while (pool.getActiveCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        //Idle pool shrinks by one thread per sample
+        for (int i = 0; i < 4 && pool.getPoolSize() > 1; i++) {
+            pool.sample();
+        }
+
+        assertEquals(1, pool.getPoolSize());
+        assertTrue(pool.getShrinkCount() >= 1);
+    }
+}
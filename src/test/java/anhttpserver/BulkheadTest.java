@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link Bulkhead}
+ *
+ * @author Sergey Prilukin
+ */
+public class BulkheadTest {
+
+    private DefaultHttpServer server;
+
+    @Before
+    public void init() {
+        server = new DefaultHttpServer();
+        server.setPort(0);
+        server.setMaxThreads(3);
+        server.start();
+    }
+
+    @After
+    public void finish() {
+        server.stop();
+    }
+
+    private String getResult(URLConnection connection) throws Exception {
+        InputStream is = connection.getInputStream();
+        String result = IOUtils.toString(is);
+        is.close();
+        return result;
+    }
+
+    private String getResult(String urlString) throws Exception {
+        return getResult(getConnection(urlString));
+    }
+
+    private URLConnection getConnection(String urlString) throws Exception {
+        return (new URL(urlString)).openConnection();
+    }
+
+    @Test
+    public void bulkheadTest() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Bulkhead bulkhead = new Bulkhead("slow", 1, 0);
+
+        server.addHandler("/", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                return "fast";
+            }
+        });
+        server.addHandler("/slow", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+
+                return Thread.currentThread().getName();
+            }
+        }, bulkhead);
+
+        CompletableFuture<String> slow = CompletableFuture.supplyAsync(new Supplier<String>() {
+            public String get() {
+                try {
+                    return getResult(server.getBaseUrl() + "/slow");
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, bulkhead.getActiveCount());
+        assertEquals(503, ((HttpURLConnection) getConnection(server.getBaseUrl() + "/slow")).getResponseCode());
+        assertEquals("fast", getResult(server.getBaseUrl() + "/"));
+
+        release.countDown();
+        assertEquals("anhttpserver-slow-1", slow.get(5, TimeUnit.SECONDS));
+        assertEquals(1, bulkhead.getRejectedCount());
+        bulkhead.shutdown();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for limits of JDK server set by {@link DefaultHttpServer#setConnectionLimits(long, long, int)}.
+ * Limits are read once per JVM, so this class should run in its own JVM.
+ *
+ * @author Sergey Prilukin
+ */
+public class ConnectionLimitsTest {
+
+    static {
+        DefaultHttpServer.setConnectionLimits(2000, -1, -1);
+    }
+
+    private HttpServer server;
+
+    @Before
+    public void init() {
+        server = new DefaultHttpServer();
+        server.setHost("0.0.0.0");
+        server.setPort(9999);
+        server.setMaxThreads(3);
+        server.start();
+    }
+
+    @After
+    public void finish() {
+        server.stop();
+    }
+
+    private String post(String urlString, String contentType, byte[] body) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) (new URL(urlString)).openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", contentType);
+        OutputStream os = connection.getOutputStream();
+        os.write(body);
+        os.close();
+
+        InputStream is = connection.getInputStream();
+        String result = IOUtils.toString(is);
+        is.close();
+        return result;
+    }
+
+    private Socket sendSlowly(String request, int bodySize) throws Exception {
+        Socket socket = new Socket("localhost", 9999);
+        socket.setSoTimeout(10000);
+        socket.getOutputStream().write(request.getBytes());
+        socket.getOutputStream().write(new byte[bodySize]);
+        socket.getOutputStream().flush();
+
+        return socket;
+    }
+
+    @Test
+    public void slowClientsTest() throws Exception {
+        server.addHandler("/upload", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                return String.valueOf(httpRequestContext.getRequestBody().length);
+            }
+        });
+
+        //Clients which stopped sending body hold all server threads until they are disconnected
+        String upload = "POST /upload HTTP/1.1\r\nHost: localhost\r\nContent-Length: 100\r\n\r\n";
+        List<Socket> sockets = new ArrayList<Socket>();
+        for (int i = 0; i < 3; i++) {
+            sockets.add(sendSlowly(upload, 2));
+        }
+
+        long start = System.currentTimeMillis();
+        assertEquals("10", post("http://localhost:9999/upload", "text/plain", new byte[10]));
+        assertTrue(System.currentTimeMillis() - start < 8000);
+        for (Socket socket: sockets) {
+            try {
+                assertEquals(-1, socket.getInputStream().read());
+            } finally {
+                socket.close();
+            }
+        }
+    }
+}
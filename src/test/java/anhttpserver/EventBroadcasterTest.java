@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link EventBroadcaster} and {@link EventStreamHandlerAdapter}
+ *
+ * @author Sergey Prilukin
+ */
+public class EventBroadcasterTest {
+
+    private DefaultHttpServer server;
+
+    @Before
+    public void init() {
+        server = new DefaultHttpServer();
+        server.setPort(0);
+        server.setMaxThreads(3);
+        server.start();
+    }
+
+    @After
+    public void finish() {
+        server.stop();
+    }
+
+    private void waitForSubscribers(EventBroadcaster broadcaster, int count) throws Exception {
+        for (int i = 0; i < 500 && broadcaster.getSubscribersCount() != count; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(count, broadcaster.getSubscribersCount());
+    }
+
+    @Test
+    public void eventStreamTest() throws Exception {
+        EventBroadcaster broadcaster = new EventBroadcaster();
+        server.addHandler("/events", new EventStreamHandlerAdapter(broadcaster));
+
+        broadcaster.broadcast("first");
+        broadcaster.broadcast("second");
+
+        URLConnection connection = new URL(server.getBaseUrl() + "/events").openConnection();
+        connection.setRequestProperty(EventStreamHandlerAdapter.LAST_EVENT_ID_HEADER_NAME, "1");
+        connection.setReadTimeout(5000);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+
+        try {
+            assertEquals(EventStreamHandlerAdapter.EVENT_STREAM_CONTENT_TYPE, connection.getContentType());
+            assertEquals(1, broadcaster.getSubscribersCount());
+
+            //Missed event is resent
+            assertEquals("id: 2", reader.readLine());
+            assertEquals("data: second", reader.readLine());
+            assertEquals("", reader.readLine());
+
+            broadcaster.broadcast("update", "third");
+            assertEquals("id: 3", reader.readLine());
+            assertEquals("event: update", reader.readLine());
+            assertEquals("data: third", reader.readLine());
+            assertEquals("", reader.readLine());
+
+            broadcaster.close();
+            assertEquals(null, reader.readLine());
+            assertEquals(0, broadcaster.getSubscribersCount());
+        } finally {
+            broadcaster.close();
+            reader.close();
+        }
+    }
+
+    @Test
+    public void blockedSubscriberIsEvictedTest() throws Exception {
+        EventBroadcaster broadcaster = new EventBroadcaster(0, 10);
+        server.addHandler("/events", new EventStreamHandlerAdapter(broadcaster));
+
+        //Client which never reads, so server thread blocks on writing and events pile up in the queue
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(4096);
+        socket.connect(new InetSocketAddress(server.getHost(), server.getPort()));
+        try {
+            socket.getOutputStream().write(("GET /events HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes());
+            socket.getOutputStream().flush();
+            waitForSubscribers(broadcaster, 1);
+
+            StringBuilder data = new StringBuilder();
+            for (int i = 0; i < 65536; i++) {
+                data.append('a');
+            }
+
+            for (int i = 0; i < 1000 && broadcaster.getEvictedCount() == 0; i++) {
+                broadcaster.broadcast(data.toString());
+            }
+
+            assertEquals(1, broadcaster.getEvictedCount());
+            assertEquals(0, broadcaster.getSubscribersCount());
+        } finally {
+            socket.close();
+            broadcaster.close();
+        }
+    }
+
+    @Test
+    public void heartbeatTest() throws Exception {
+        EventBroadcaster broadcaster = new EventBroadcaster();
+        server.addHandler("/events", new EventStreamHandlerAdapter(broadcaster));
+        broadcaster.startHeartbeat(100);
+
+        URLConnection connection = new URL(server.getBaseUrl() + "/events").openConnection();
+        connection.setReadTimeout(5000);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+
+        try {
+            //Idle stream receives comment lines
+            for (int i = 0; i < 2; i++) {
+                assertEquals(":", reader.readLine());
+                assertEquals("", reader.readLine());
+            }
+
+            broadcaster.broadcast("event");
+            //Skip heartbeats sent before the event
+            String line = reader.readLine();
+            while (line.startsWith(":") || line.isEmpty()) {
+                line = reader.readLine();
+            }
+
+            assertTrue(line.startsWith("id: "));
+            assertEquals("data: event", reader.readLine());
+        } finally {
+            broadcaster.close();
+            reader.close();
+        }
+    }
+}
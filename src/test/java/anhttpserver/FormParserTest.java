@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for parsing of url encoded and multipart forms by {@link FormParser}
+ *
+ * @author Sergey Prilukin
+ */
+public class FormParserTest {
+
+    private DefaultHttpServer server;
+
+    @Before
+    public void init() {
+        server = new DefaultHttpServer();
+        server.setPort(0);
+        server.setMaxThreads(3);
+        server.start();
+    }
+
+    @After
+    public void finish() {
+        server.stop();
+    }
+
+    private String getResult(URLConnection connection) throws Exception {
+        InputStream is = connection.getInputStream();
+        String result = IOUtils.toString(is);
+        is.close();
+        return result;
+    }
+
+    private String getResult(String urlString) throws Exception {
+        return getResult(getConnection(urlString));
+    }
+
+    private URLConnection getConnection(String urlString) throws Exception {
+        return (new URL(urlString)).openConnection();
+    }
+
+    private String post(String urlString, String contentType, byte[] body) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) getConnection(urlString);
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", contentType);
+        OutputStream os = connection.getOutputStream();
+        os.write(body);
+        os.close();
+
+        return getResult(connection);
+    }
+
+    @Test
+    public void urlEncodedParametersTest() throws Exception {
+        server.addHandler("/form", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                return httpRequestContext.getParameter("a") + "," + httpRequestContext.getParameterValues("b")
+                        + "," + httpRequestContext.getParameter("c") + "," + httpRequestContext.getQueryParameters().size();
+            }
+        });
+
+        assertEquals("1,[2, x y],null,2", post(server.getBaseUrl() + "/form?a=1&b=2",
+                "application/x-www-form-urlencoded", "b=x+y".getBytes()));
+    }
+
+    @Test
+    public void multipartParametersTest() throws Exception {
+        server.setPartMemoryThreshold(4);
+
+        server.addHandler("/upload", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                FormPart file = httpRequestContext.getPart("file");
+                return httpRequestContext.getParameter("field") + "," + file.getFileName() + ","
+                        + file.isInMemory() + "," + file.getString(Charset.forName("UTF-8"));
+            }
+        });
+
+        String body = "preamble\r\n"
+                + "--XyZ\r\n"
+                + "Content-Disposition: form-data; name=\"field\"\r\n"
+                + "\r\n"
+                + "val\r\n"
+                + "--XyZ\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"a;b.txt\"\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "\r\n"
+                + "line1\r\n--Xy\r\nline2\r\n"
+                + "--XyZ--\r\n";
+
+        assertEquals("val,a;b.txt,false,line1\r\n--Xy\r\nline2", post(server.getBaseUrl() + "/upload",
+                "multipart/form-data; boundary=XyZ", body.getBytes("UTF-8")));
+
+        //Body which was already read is parsed from memory
+        server.addHandler("/cached", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                int length = httpRequestContext.getRequestBody().length;
+                return httpRequestContext.getParameter("field") + "," + (length > 0);
+            }
+        });
+
+        assertEquals("val,true", post(server.getBaseUrl() + "/cached",
+                "multipart/form-data; boundary=XyZ", body.getBytes("UTF-8")));
+    }
+}
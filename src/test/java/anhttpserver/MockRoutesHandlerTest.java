@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link MockRoutesHandler}
+ *
+ * @author Sergey Prilukin
+ */
+public class MockRoutesHandlerTest {
+
+    private DefaultHttpServer server;
+
+    @Before
+    public void init() {
+        server = new DefaultHttpServer();
+        server.setPort(0);
+        server.setMaxThreads(3);
+        server.start();
+    }
+
+    @After
+    public void finish() {
+        server.stop();
+    }
+
+    private String getResult(URLConnection connection) throws Exception {
+        InputStream is = connection.getInputStream();
+        String result = IOUtils.toString(is);
+        is.close();
+        return result;
+    }
+
+    private String getResult(String urlString) throws Exception {
+        return getResult(getConnection(urlString));
+    }
+
+    private URLConnection getConnection(String urlString) throws Exception {
+        return (new URL(urlString)).openConnection();
+    }
+
+    private String post(String urlString, String contentType, byte[] body) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) getConnection(urlString);
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", contentType);
+        OutputStream os = connection.getOutputStream();
+        os.write(body);
+        os.close();
+
+        return getResult(connection);
+    }
+
+    private String getErrorResult(String urlString, int expectedResponseCode) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) getConnection(urlString);
+        assertEquals(expectedResponseCode, connection.getResponseCode());
+        InputStream errorStream = connection.getErrorStream();
+        try {
+            return IOUtils.toString(errorStream);
+        } finally {
+            errorStream.close();
+        }
+    }
+
+    @Test
+    public void mockRoutesTest() throws Exception {
+        File file = File.createTempFile("routes", ".json");
+        try {
+            FileUtils.writeStringToFile(file, "{\"routes\": ["
+                    + "{\"request\": {\"method\": \"GET\", \"path\": \"/users/{id}\", \"query\": {\"q\": \"a+\"}},"
+                    + " \"response\": {\"body\": \"query {{path.id}}\"}},"
+                    + "{\"request\": {\"method\": \"GET\", \"path\": \"/users/{id}\"},"
+                    + " \"response\": {\"headers\": {\"X-Id\": \"1\"}, \"body\": \"user {{path.id}}\"}},"
+                    + "{\"request\": {\"path\": \"/users/me\"}, \"response\": {\"body\": \"me\"}},"
+                    + "{\"request\": {\"method\": \"POST\", \"path\": \"/users\", \"jsonPath\": {\"$.name\": \"jo.*\"}},"
+                    + " \"response\": {\"status\": 201, \"body\": \"{{body}}\"}},"
+                    + "{\"request\": {\"path\": \"/static/*\"}, \"response\": {\"body\": \"static\"}}"
+                    + "]}", "UTF-8");
+
+            MockRoutesHandler handler = server.addMockRoutes("/", file);
+            assertEquals(5, handler.getRoutesCount());
+
+            URLConnection connection = getConnection(server.getBaseUrl() + "/users/42");
+            assertEquals("user 42", getResult(connection));
+            assertEquals("1", connection.getHeaderField("X-Id"));
+            assertEquals("query 42", getResult(server.getBaseUrl() + "/users/42?q=aaa"));
+            assertEquals("user 42", getResult(server.getBaseUrl() + "/users/42?q=b"));
+            assertEquals("me", getResult(server.getBaseUrl() + "/users/me"));
+            assertEquals("static", getResult(server.getBaseUrl() + "/static/css/main.css"));
+
+            assertEquals("{\"name\": \"john\"}", post(server.getBaseUrl() + "/users", "application/json",
+                    "{\"name\": \"john\"}".getBytes()));
+            try {
+                post(server.getBaseUrl() + "/users", "application/json", "{\"name\": \"bob\"}".getBytes());
+                fail("Route should not match");
+            } catch (FileNotFoundException e) {
+                //404 Not Found
+            }
+
+            assertEquals("404 Not Found", getErrorResult(server.getBaseUrl() + "/other", 404));
+
+            FileUtils.writeStringToFile(file, "{\"routes\": [{\"request\": {\"path\": \"/other\"},"
+                    + " \"response\": {\"body\": \"reloaded\"}}]}", "UTF-8");
+            file.setLastModified(file.lastModified() + 2000);
+            assertTrue(handler.reloadIfChanged());
+            assertEquals(1, handler.getRoutesCount());
+            assertEquals("reloaded", getResult(server.getBaseUrl() + "/other"));
+
+            //File is not watched after reset
+            server.reset();
+            FileUtils.writeStringToFile(file, "{\"routes\": []}", "UTF-8");
+            file.setLastModified(file.lastModified() + 4000);
+            Thread.sleep(MockRoutesHandler.DEFAULT_RELOAD_INTERVAL * 2);
+            assertEquals(1, handler.getRoutesCount());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link RequestJournal}
+ *
+ * @author Sergey Prilukin
+ */
+public class RequestJournalTest {
+
+    private DefaultHttpServer server;
+
+    @Before
+    public void init() {
+        server = new DefaultHttpServer();
+        server.setPort(0);
+        server.setMaxThreads(3);
+        server.start();
+    }
+
+    @After
+    public void finish() {
+        server.stop();
+    }
+
+    private String getResult(URLConnection connection) throws Exception {
+        InputStream is = connection.getInputStream();
+        String result = IOUtils.toString(is);
+        is.close();
+        return result;
+    }
+
+    private String getResult(String urlString) throws Exception {
+        return getResult(getConnection(urlString));
+    }
+
+    private URLConnection getConnection(String urlString) throws Exception {
+        return (new URL(urlString)).openConnection();
+    }
+
+    private String post(String urlString, String contentType, byte[] body) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) getConnection(urlString);
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", contentType);
+        OutputStream os = connection.getOutputStream();
+        os.write(body);
+        os.close();
+
+        return getResult(connection);
+    }
+
+    @Test
+    public void requestJournalTest() throws Exception {
+        RequestJournal journal = new RequestJournal(3, 4);
+        server.setRequestJournal(journal);
+        server.addHandler("/orders", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                return "ok";
+            }
+        });
+
+        post(server.getBaseUrl() + "/orders", "text/plain", "order1".getBytes());
+        getResult(server.getBaseUrl() + "/orders?id=1");
+        getResult(server.getBaseUrl() + "/orders?id=2");
+
+        assertEquals(3, journal.count(null, "/orders"));
+        assertEquals(2, journal.count("GET", "/orders"));
+        RecordedRequest posted = journal.find("POST", null).get(0);
+        assertEquals("orde", posted.getBodyAsString(Charset.forName("UTF-8")));
+        assertTrue(posted.isBodyTruncated());
+        assertEquals("text/plain", posted.getHeader("content-type"));
+
+        //Oldest request is evicted
+        try {
+            getResult(server.getBaseUrl() + "/missing");
+            fail("Path should not be found");
+        } catch (FileNotFoundException e) {
+            //404 Not Found
+        }
+
+        assertEquals(0, journal.count("POST", null));
+        assertEquals(1, journal.count(null, "/missing"));
+        assertEquals("id=2", journal.find("GET", "/orders").get(1).getURI().getQuery());
+        assertEquals(4, journal.getTotalCount());
+        assertEquals(1, journal.getEvictedCount());
+        assertEquals(3, journal.getAll().size());
+
+        server.reset();
+        assertEquals(0, journal.getAll().size());
+
+        //Body read as stream by handler is recorded too
+        server.addHandler("/stream", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                return String.valueOf(IOUtils.toByteArray(httpRequestContext.getRequestBodyAsStream()).length);
+            }
+        });
+
+        assertEquals("6", post(server.getBaseUrl() + "/stream", "text/plain", "order2".getBytes()));
+        RecordedRequest streamed = journal.find("POST", "/stream").get(0);
+        assertEquals("orde", streamed.getBodyAsString(Charset.forName("UTF-8")));
+        assertTrue(streamed.isBodyTruncated());
+    }
+}
@@ -22,20 +22,54 @@
 
 package anhttpserver;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Very basic tests for {@link DefaultHttpServer}
@@ -116,7 +150,52 @@ public class ServerTest {
         assertEquals("Hello world!", getResult("http://localhost:9999"));
     }
 
-    @Test(expected = java.net.SocketException.class)
+    @Test
+    public void stringHandlerAdapterCharsetTest() throws Exception {
+
+        server.addHandler("/", new StringHandlerAdapter(Charset.forName("UTF-8")) {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                return "Привет";
+            }
+        });
+
+        InputStream is = getConnection("http://localhost:9999").getInputStream();
+        assertEquals("Привет", IOUtils.toString(is, "UTF-8"));
+        is.close();
+    }
+
+    @Test
+    public void staticResponseHandlerTest() throws Exception {
+        server.addHandler("/", new StaticResponseHandler(201,
+                Collections.singletonMap("X-Static", "true"), "Hello world!".getBytes("UTF-8")));
+
+        URLConnection connection = getConnection("http://localhost:9999");
+        assertEquals("true", connection.getHeaderField("X-Static"));
+        assertEquals(DefaultHttpServer.FULL_SERVER_NAME, connection.getHeaderField(DefaultHttpServer.SERVER_HEADER_NAME));
+        assertEquals("Hello world!", getResult(connection));
+        assertEquals("Hello world!", getResult("http://localhost:9999"));
+    }
+
+    @Test
+    public void defaultResponseHeadersTest() throws Exception {
+        server.addHandler("/static", new StaticResponseHandler("static".getBytes()));
+        server.addHandler("/dynamic", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                return "dynamic";
+            }
+        });
+
+        assertEquals(null, getConnection("http://localhost:9999/static").getHeaderField("X-Default"));
+
+        server.addResponseHeader("X-Default", "default");
+
+        assertEquals("default", getConnection("http://localhost:9999/static").getHeaderField("X-Default"));
+        assertEquals("default", getConnection("http://localhost:9999/dynamic").getHeaderField("X-Default"));
+    }
+
+    @Test
     public void testNullForStringHandlerAdapterTest() throws Exception {
 
         server.addHandler("/", new StringHandlerAdapter() {
@@ -126,7 +205,8 @@ public class ServerTest {
             }
         });
 
-        assertEquals(null, getResult("http://localhost:9999"));
+        //Handler failed before response headers were sent
+        assertEquals("500 Internal Server Error", getErrorResult("http://localhost:9999", 500));
     }
 
     @Test(expected = java.io.FileNotFoundException.class)
@@ -231,6 +311,1067 @@ public class ServerTest {
         assertTrue(testPassed.get());
     }
 
+    @Test
+    public void pipelinedRequestsTest() throws Exception {
+        server.addHandler("/", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                return httpRequestContext.getRequestURI().getPath();
+            }
+        });
+
+        Socket socket = new Socket("localhost", 9999);
+        try {
+            socket.setSoTimeout(5000);
+            OutputStream os = socket.getOutputStream();
+            os.write(("GET /first HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /second HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /third HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n").getBytes());
+            os.flush();
+
+            String result = IOUtils.toString(socket.getInputStream());
+            int first = result.indexOf("/first");
+            int second = result.indexOf("/second");
+            int third = result.indexOf("/third");
+
+            assertTrue(first > 0);
+            assertTrue(second > first);
+            assertTrue(third > second);
+        } finally {
+            socket.close();
+        }
+    }
+
+    private String post(String urlString, String contentType, byte[] body) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) getConnection(urlString);
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", contentType);
+        OutputStream os = connection.getOutputStream();
+        os.write(body);
+        os.close();
+
+        return getResult(connection);
+    }
+
+    @Test
+    public void asyncHandlerReleasesThreadTest() throws Exception {
+        final String TEST_HEADER = "TEST-HEADER";
+        final CompletableFuture<String> release = new CompletableFuture<String>();
+
+        server.addHandler("/async", new AsyncHttpHandlerAdapter() {
+            public CompletionStage<InputStream> getResponseAsync(final HttpRequestContext httpRequestContext) {
+                setResponseHeader(TEST_HEADER, "async", httpRequestContext);
+                return release.thenApply(new Function<String, InputStream>() {
+                    public InputStream apply(String result) {
+                        setResponseSize(result.length(), httpRequestContext);
+                        return new ByteArrayInputStream(result.getBytes());
+                    }
+                });
+            }
+        });
+
+        server.addHandler("/release", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                release.complete("released");
+                return "ok";
+            }
+        });
+
+        //More waiting requests than server threads
+        final String[] results = new String[5];
+        final String[] headers = new String[results.length];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        URLConnection connection = getConnection("http://localhost:9999/async");
+                        headers[index] = connection.getHeaderField(TEST_HEADER);
+                        results[index] = getResult(connection);
+                    } catch (Exception e) {
+                        results[index] = e.toString();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        Thread.sleep(200);
+        assertEquals("ok", getResult("http://localhost:9999/release"));
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            assertEquals("released", results[i]);
+            assertEquals("async", headers[i]);
+        }
+    }
+
+    @Test
+    public void asyncResponseWrittenByRouteExecutorTest() throws Exception {
+        final String[] writer = new String[1];
+        Bulkhead bulkhead = new Bulkhead("async", 1, 1);
+
+        server.addHandler("/async", new AsyncHttpHandlerAdapter() {
+            public CompletionStage<InputStream> getResponseAsync(HttpRequestContext httpRequestContext) {
+                setResponseSize(4, httpRequestContext);
+                return CompletableFuture.<InputStream>completedFuture(new ByteArrayInputStream("done".getBytes()) {
+                    @Override
+                    public synchronized int read(byte[] b, int off, int len) {
+                        writer[0] = Thread.currentThread().getName();
+                        return super.read(b, off, len);
+                    }
+                });
+            }
+        }, bulkhead);
+
+        assertEquals("done", getResult("http://localhost:9999/async"));
+        assertTrue(writer[0], writer[0].startsWith("anhttpserver-async-"));
+        bulkhead.shutdown();
+    }
+
+    @Test
+    public void asyncHandlerTimeoutTest() throws Exception {
+        server.addHandler("/never", new AsyncHttpHandlerAdapter(100) {
+            public CompletionStage<InputStream> getResponseAsync(HttpRequestContext httpRequestContext) {
+                return new CompletableFuture<InputStream>();
+            }
+        });
+
+        HttpURLConnection connection = (HttpURLConnection) getConnection("http://localhost:9999/never");
+        assertEquals(DefaultHttpServer.ASYNC_TIMEOUT_RESPONSE_CODE, connection.getResponseCode());
+    }
+
+    @Test
+    public void asyncHandlerWithFilterTest() throws Exception {
+        final String TEST_HEADER = "TEST-HEADER";
+        server.addHandler("/never", new AsyncHttpHandlerAdapter(100) {
+            public CompletionStage<InputStream> getResponseAsync(HttpRequestContext httpRequestContext) {
+                return new CompletableFuture<InputStream>();
+            }
+        });
+
+        server.addHandler("/ready", new AsyncHttpHandlerAdapter(1000) {
+            public CompletionStage<InputStream> getResponseAsync(HttpRequestContext httpRequestContext) {
+                return CompletableFuture.<InputStream>completedFuture(new ByteArrayInputStream("ready".getBytes()));
+            }
+        });
+
+        server.addFilter(new HttpFilter() {
+            public InputStream filter(HttpRequestContext httpRequestContext, FilterChain chain) throws IOException {
+                chain.setResponseHeader(TEST_HEADER, "filtered");
+                chain.setResponseSize(HttpHandler.STREAMING_RESPONSE_SIZE);
+                return chain.getResponse(httpRequestContext);
+            }
+        });
+
+        HttpURLConnection connection = (HttpURLConnection) getConnection("http://localhost:9999/never");
+        assertEquals(DefaultHttpServer.ASYNC_TIMEOUT_RESPONSE_CODE, connection.getResponseCode());
+
+        URLConnection ready = getConnection("http://localhost:9999/ready");
+        assertEquals("ready", getResult(ready));
+        assertEquals("filtered", ready.getHeaderField(TEST_HEADER));
+    }
+
+    @Test
+    public void filtersTest() throws Exception {
+        final StringBuilder order = new StringBuilder();
+
+        HttpFilter authFilter = new HttpFilter() {
+            public InputStream filter(HttpRequestContext httpRequestContext, FilterChain chain) throws IOException {
+                order.append("auth;");
+                if (httpRequestContext.getRequestHeaders().get("Authorization") == null) {
+                    chain.setResponseCode(HttpURLConnection.HTTP_UNAUTHORIZED);
+                    return null;
+                }
+
+                return chain.getResponse(httpRequestContext);
+            }
+        };
+
+        server.addHandler("/public", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                order.append("handler;");
+                return "public";
+            }
+        });
+
+        server.addHandler("/private", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                order.append("handler;");
+                return "private";
+            }
+        }, authFilter);
+
+        //Global filter is applied to routes registered before it as well
+        server.addFilter(new HttpFilter() {
+            public InputStream filter(HttpRequestContext httpRequestContext, FilterChain chain) throws IOException {
+                order.append("cors;");
+                chain.setResponseHeader("Access-Control-Allow-Origin", "*");
+                return chain.getResponse(httpRequestContext);
+            }
+        });
+
+        URLConnection connection = getConnection("http://localhost:9999/public");
+        assertEquals("*", connection.getHeaderField("Access-Control-Allow-Origin"));
+        assertEquals("public", getResult(connection));
+        assertEquals("cors;handler;", order.toString());
+
+        order.setLength(0);
+        HttpURLConnection unauthorized = (HttpURLConnection) getConnection("http://localhost:9999/private");
+        assertEquals(HttpURLConnection.HTTP_UNAUTHORIZED, unauthorized.getResponseCode());
+        assertEquals("cors;auth;", order.toString());
+
+        order.setLength(0);
+        connection = getConnection("http://localhost:9999/private");
+        connection.setRequestProperty("Authorization", "Basic dGVzdDp0ZXN0");
+        assertEquals("private", getResult(connection));
+        assertEquals("cors;auth;handler;", order.toString());
+    }
+
+    private File createKeyStore() throws Exception {
+        File keyStore = File.createTempFile("anhttpserver", ".jks");
+        keyStore.delete();
+        keyStore.deleteOnExit();
+
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "test", "-keyalg", "RSA",
+                "-dname", "CN=localhost", "-validity", "1", "-storetype", "JKS",
+                "-keystore", keyStore.getAbsolutePath(), "-storepass", "password", "-keypass", "password")
+                .redirectErrorStream(true).start();
+        IOUtils.toString(process.getInputStream());
+        assertEquals(0, process.waitFor());
+
+        return keyStore;
+    }
+
+    private SSLContext createTrustAllContext() throws Exception {
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, new TrustManager[] {new X509TrustManager() {
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+
+        return sslContext;
+    }
+
+    @Test
+    public void httpsTest() throws Exception {
+        HttpsConfiguration https = new HttpsConfiguration(createKeyStore().getAbsolutePath(), "password");
+        https.setProtocols("TLSv1.2");
+
+        DefaultHttpServer httpsServer = new DefaultHttpServer();
+        httpsServer.setPort(9443);
+        httpsServer.setHttpsConfiguration(https);
+        httpsServer.start();
+
+        try {
+            httpsServer.addHandler("/", new StaticResponseHandler("secure".getBytes()));
+            assertEquals("https://localhost:9443", httpsServer.getBaseUrl());
+
+            SSLSocketFactory socketFactory = createTrustAllContext().getSocketFactory();
+            for (int i = 0; i < 2; i++) {
+                HttpsURLConnection connection = (HttpsURLConnection) getConnection(httpsServer.getBaseUrl());
+                connection.setSSLSocketFactory(socketFactory);
+                connection.setHostnameVerifier(new HostnameVerifier() {
+                    public boolean verify(String hostname, SSLSession session) {
+                        return true;
+                    }
+                });
+
+                assertEquals("secure", getResult(connection));
+            }
+
+            assertTrue(httpsServer.getHttpsConnectionsCount() >= 1);
+            assertEquals(1, httpsServer.getHttpsSessionsCount());
+        } finally {
+            httpsServer.stop();
+        }
+    }
+
+    private String getWithHost(String path, String host) throws Exception {
+        Socket socket = new Socket("localhost", 9999);
+        try {
+            socket.setSoTimeout(5000);
+            OutputStream os = socket.getOutputStream();
+            os.write(("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\nConnection: close\r\n\r\n").getBytes());
+            os.flush();
+
+            String response = IOUtils.toString(socket.getInputStream());
+            return response.substring(response.indexOf("\r\n\r\n") + 4);
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void virtualHostsTest() throws Exception {
+        class ThreadNameHandler extends StringHandlerAdapter {
+            private String prefix;
+
+            ThreadNameHandler(String prefix) {
+                this.prefix = prefix;
+            }
+
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                return prefix + ":" + Thread.currentThread().getName();
+            }
+        }
+
+        server.addHandler("/", new ThreadNameHandler("default"));
+        server.addHandler("API.test", "/api", new ThreadNameHandler("api"));
+        server.setVirtualHostExecutor("api.test", Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "api-thread");
+            }
+        }));
+
+        assertEquals("api:api-thread", getWithHost("/api/users", "api.test:9999"));
+        assertTrue(getWithHost("/other", "api.test").startsWith("default:"));
+        assertTrue(getWithHost("/api", "other.test").startsWith("default:"));
+    }
+
+    @Test
+    public void serverPoolTest() throws Exception {
+        final String TEST_HEADER = "TEST-HEADER";
+        HttpServerPool pool = new HttpServerPool(1);
+        try {
+            DefaultHttpServer pooledServer = pool.acquire();
+            assertTrue(pooledServer.getPort() > 0);
+            assertEquals(0, pooledServer.getRequestsCount());
+            assertEquals("http://localhost:" + pooledServer.getPort(), pooledServer.getBaseUrl());
+
+            pooledServer.addHandler("/", new StringHandlerAdapter() {
+                @Override
+                public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                    return "pooled";
+                }
+            });
+            pooledServer.addResponseHeader(TEST_HEADER, "pooled");
+            assertEquals("pooled", getResult(pooledServer.getBaseUrl() + "/"));
+
+            pool.release(pooledServer);
+            assertTrue(pooledServer == pool.acquire());
+            HttpURLConnection connection = (HttpURLConnection) getConnection(pooledServer.getBaseUrl() + "/");
+            assertEquals(404, connection.getResponseCode());
+            assertEquals(null, connection.getHeaderField(TEST_HEADER));
+            assertEquals(DefaultHttpServer.FULL_SERVER_NAME, connection.getHeaderField(DefaultHttpServer.SERVER_HEADER_NAME));
+            pool.release(pooledServer);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void warmUpTest() throws Exception {
+        DefaultHttpServer warmedServer = new DefaultHttpServer();
+        warmedServer.setPort(0);
+        try {
+            warmedServer.warmUp(1);
+            fail("Server which is not started can not be warmed up");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+
+        final AtomicInteger filtered = new AtomicInteger();
+        warmedServer.addFilter(new HttpFilter() {
+            public InputStream filter(HttpRequestContext httpRequestContext, FilterChain chain) throws IOException {
+                filtered.incrementAndGet();
+                throw new HttpException(HttpURLConnection.HTTP_FORBIDDEN);
+            }
+        });
+        warmedServer.addHandler("/", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                return "ok";
+            }
+        });
+        warmedServer.setRequestJournal(new RequestJournal());
+        warmedServer.setConnectionStatsEnabled(true);
+        warmedServer.start();
+
+        try {
+            warmedServer.warmUp(5);
+            assertEquals(0, filtered.get());
+            assertEquals(0, warmedServer.getRequestsCount());
+            assertEquals(0, warmedServer.getErrorsCount());
+            assertEquals(0, warmedServer.getRequestJournal().getTotalCount());
+            assertEquals(0, warmedServer.getOpenConnectionsCount());
+
+            assertEquals(403, ((HttpURLConnection) getConnection(warmedServer.getBaseUrl() + "/")).getResponseCode());
+            assertEquals(1, filtered.get());
+            assertEquals(1, warmedServer.getRequestsCount());
+        } finally {
+            warmedServer.stop();
+        }
+    }
+
+    @Test
+    public void requestAccessorsTest() throws Exception {
+        server.addHandler("/", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                return httpRequestContext.getHeader("x-test-header") + "|"
+                        + httpRequestContext.getQueryParam("q") + "|"
+                        + httpRequestContext.getCookie("session") + "|"
+                        + httpRequestContext.getCookie("theme") + "|"
+                        + httpRequestContext.getCookie("missing") + "|"
+                        + httpRequestContext.getContentType() + "|"
+                        + httpRequestContext.getContentLength();
+            }
+        });
+
+        HttpURLConnection connection = (HttpURLConnection) getConnection("http://localhost:9999/?q=a%20b&q=c");
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("X-Test-Header", "value");
+        connection.setRequestProperty("Cookie", "session=abc; theme=\"dark\"");
+        connection.setRequestProperty("Content-Type", "Text/Plain; charset=UTF-8");
+        OutputStream os = connection.getOutputStream();
+        os.write("body".getBytes());
+        os.close();
+
+        assertEquals("value|a b|abc|dark|null|text/plain|4", getResult(connection));
+    }
+
+    @Test
+    public void serverQueueTimeTest() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        DefaultHttpServer singleThreadServer = new DefaultHttpServer();
+        singleThreadServer.setPort(0);
+        singleThreadServer.setMaxThreads(1);
+        singleThreadServer.addHandler("/", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                if (started.getCount() > 0) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+
+                return String.valueOf(httpRequestContext.getTrace().getDuration(RequestTrace.RECEIVED,
+                        RequestTrace.DISPATCHED, TimeUnit.MILLISECONDS));
+            }
+        });
+        singleThreadServer.start();
+
+        try {
+            final String url = singleThreadServer.getBaseUrl() + "/";
+            CompletableFuture<String> busy = CompletableFuture.supplyAsync(new Supplier<String>() {
+                public String get() {
+                    try {
+                        return getResult(url);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            //Waits for the only thread of the server
+            CompletableFuture<String> queued = CompletableFuture.supplyAsync(new Supplier<String>() {
+                public String get() {
+                    try {
+                        return getResult(url);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            Thread.sleep(300);
+            release.countDown();
+
+            busy.get(5, TimeUnit.SECONDS);
+            assertTrue(Long.parseLong(queued.get(5, TimeUnit.SECONDS)) >= 250);
+        } finally {
+            singleThreadServer.stop();
+        }
+    }
+
+    @Test
+    public void requestTraceTest() throws Exception {
+        final AtomicReference<RequestTrace> trace = new AtomicReference<RequestTrace>();
+        ((DefaultHttpServer) server).setSlowRequestThreshold(20);
+        server.addHandler("/", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                trace.set(httpRequestContext.getTrace());
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+
+                return httpRequestContext.getTrace().getTraceParent();
+            }
+        });
+
+        URLConnection connection = getConnection("http://localhost:9999/");
+        connection.setRequestProperty("traceparent", "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01");
+        String traceParent = getResult(connection);
+        assertTrue(traceParent.startsWith("00-4bf92f3577b34da6a3ce929d0e0e4736-"));
+        assertTrue(traceParent.endsWith("-01"));
+        assertEquals("00f067aa0ba902b7", trace.get().getParentId());
+        assertEquals(trace.get().getSpanId(), traceParent.substring(36, 52));
+        assertTrue(trace.get().getDuration(RequestTrace.HANDLER_STARTED, RequestTrace.HANDLER_COMPLETED,
+                TimeUnit.MILLISECONDS) >= 50);
+
+        //Invalid header starts a new trace
+        connection = getConnection("http://localhost:9999/");
+        connection.setRequestProperty("traceparent", "00-00000000000000000000000000000000-00f067aa0ba902b7-01");
+        traceParent = getResult(connection);
+        assertEquals(55, traceParent.length());
+        assertTrue(!traceParent.startsWith("00-00000000000000000000000000000000"));
+        assertEquals(null, trace.get().getParentId());
+    }
+
+    @Test
+    public void proxyHttpHandlerTest() throws Exception {
+        final String TEST_HEADER = "TEST-HEADER";
+        DefaultHttpServer upstream = new DefaultHttpServer();
+        upstream.setPort(0);
+        upstream.addHandler("/", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                setResponseHeader("X-Upstream", "true", httpRequestContext);
+                addResponseHeader("Set-Cookie", "a=1", httpRequestContext);
+                addResponseHeader("Set-Cookie", "b=2", httpRequestContext);
+                return httpRequestContext.getRequestMethod() + " " + httpRequestContext.getRequestURI()
+                        + " " + new String(httpRequestContext.getRequestBody(), "UTF-8")
+                        + " " + httpRequestContext.getHeader(TEST_HEADER);
+            }
+        });
+        upstream.addHandler("/binary", new ByteArrayHandlerAdapter() {
+            @Override
+            public byte[] getResponseAsByteArray(HttpRequestContext httpRequestContext) throws IOException {
+                return new byte[] {0, (byte) 0xff, 1};
+            }
+        });
+        upstream.start();
+
+        File file = File.createTempFile("recorded", ".json");
+        try {
+            server.addHandler("/mocked", new StringHandlerAdapter() {
+                @Override
+                public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                    return "mocked";
+                }
+            });
+
+            ProxyHttpHandler proxy = new ProxyHttpHandler(upstream.getBaseUrl());
+            proxy.setRecording(true);
+            proxy.setMaxRecordedRoutes(3);
+            server.setFallbackHandler(proxy);
+
+            assertEquals("mocked", getResult("http://localhost:9999/mocked"));
+
+            URLConnection connection = getConnection("http://localhost:9999/real?a=1");
+            connection.setRequestProperty(TEST_HEADER, "header");
+            assertEquals("GET /real?a=1  header", getResult(connection));
+            assertEquals("true", connection.getHeaderField("X-Upstream"));
+            List<String> cookies = new ArrayList<String>();
+            for (Map.Entry<String, List<String>> header: connection.getHeaderFields().entrySet()) {
+                if ("Set-Cookie".equalsIgnoreCase(header.getKey())) {
+                    cookies.addAll(header.getValue());
+                }
+            }
+
+            Collections.sort(cookies);
+            assertEquals(Arrays.asList("a=1", "b=2"), cookies);
+            assertEquals("POST /real body null", post("http://localhost:9999/real", "text/plain", "body".getBytes()));
+            IOUtils.toByteArray(getConnection("http://localhost:9999/binary").getInputStream());
+
+            //Requests over the limit are not recorded
+            assertEquals("GET /real?a=2  null", getResult("http://localhost:9999/real?a=2"));
+
+            proxy.saveRecordedRoutes(file);
+            MockRoutesHandler recorded = new MockRoutesHandler(file);
+            assertEquals(3, recorded.getRoutesCount());
+
+            upstream.stop();
+            assertEquals(502, ((HttpURLConnection) getConnection("http://localhost:9999/real")).getResponseCode());
+
+            //Recorded traffic is served without upstream
+            server.addHandler("/real", recorded);
+            assertEquals("GET /real?a=1  header", getResult("http://localhost:9999/real?a=1"));
+            server.addHandler("/binary", recorded);
+            assertTrue(Arrays.equals(new byte[] {0, (byte) 0xff, 1},
+                    IOUtils.toByteArray(getConnection("http://localhost:9999/binary").getInputStream())));
+        } finally {
+            upstream.stop();
+            file.delete();
+        }
+    }
+
+    private String getErrorResult(String urlString, int expectedResponseCode) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) getConnection(urlString);
+        assertEquals(expectedResponseCode, connection.getResponseCode());
+        InputStream errorStream = connection.getErrorStream();
+        try {
+            return IOUtils.toString(errorStream);
+        } finally {
+            errorStream.close();
+        }
+    }
+
+    @Test
+    public void errorHandlingTest() throws Exception {
+        DefaultHttpServer defaultServer = (DefaultHttpServer) server;
+        server.addHandler("/method", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                throw new HttpException(HttpURLConnection.HTTP_BAD_METHOD);
+            }
+        });
+
+        server.addHandler("/failure", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                throw new IllegalStateException("failure");
+            }
+        });
+
+        class CustomErrorHandler extends StringHandlerAdapter implements ErrorHandler {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                throw new HttpException(HttpURLConnection.HTTP_CONFLICT, "Conflict");
+            }
+
+            public StaticResponseHandler handleError(HttpRequestContext ctx, int responseCode, Throwable error) {
+                return new StaticResponseHandler(responseCode, new HashMap<String, String>(),
+                        ("custom " + error.getMessage()).getBytes());
+            }
+        }
+        server.addHandler("/custom", new CustomErrorHandler());
+
+        assertEquals("405 Method Not Allowed", getErrorResult("http://localhost:9999/method", 405));
+        assertEquals("500 Internal Server Error", getErrorResult("http://localhost:9999/failure", 500));
+        assertEquals("404 Not Found", getErrorResult("http://localhost:9999/missing", 404));
+        assertEquals("custom Conflict", getErrorResult("http://localhost:9999/custom", 409));
+
+        server.setErrorHandler(new ErrorHandler() {
+            public StaticResponseHandler handleError(HttpRequestContext ctx, int responseCode, Throwable error) {
+                return responseCode == HttpURLConnection.HTTP_NOT_FOUND
+                        ? new StaticResponseHandler(responseCode, new HashMap<String, String>(),
+                                ("no " + ctx.getRequestURI().getPath()).getBytes())
+                        : null;
+            }
+        });
+
+        assertEquals("no /missing", getErrorResult("http://localhost:9999/missing", 404));
+        assertEquals("500 Internal Server Error", getErrorResult("http://localhost:9999/failure", 500));
+        assertEquals("custom Conflict", getErrorResult("http://localhost:9999/custom", 409));
+
+        server.setErrorHandler(null);
+        server.setErrorResponse(new StaticResponseHandler(HttpURLConnection.HTTP_NOT_FOUND,
+                new HashMap<String, String>(), "gone".getBytes()));
+        assertEquals("gone", getErrorResult("http://localhost:9999/missing", 404));
+
+        assertEquals(8, defaultServer.getErrorsCount());
+        assertEquals(3, defaultServer.getErrorsCount(HttpURLConnection.HTTP_NOT_FOUND));
+        assertEquals(2, defaultServer.getErrorsCount(HttpURLConnection.HTTP_INTERNAL_ERROR));
+        assertEquals(0, defaultServer.getErrorsCount(HttpURLConnection.HTTP_UNAVAILABLE));
+        assertTrue(defaultServer.getRequestsCount() >= 8);
+
+        //Generated responses are not part of snapshot, default responses are restored on reset
+        server.addHandler("/conflict", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                throw new HttpException(HttpURLConnection.HTTP_CONFLICT);
+            }
+        });
+
+        assertEquals("409", getErrorResult("http://localhost:9999/conflict", 409));
+        assertTrue(!defaultServer.getSnapshot().contains("409"));
+        server.reset();
+        assertEquals("404 Not Found", getErrorResult("http://localhost:9999/missing", 404));
+    }
+
+    private String sendRequest(String request, int bodySize) throws Exception {
+        Socket socket = new Socket("localhost", 9999);
+        try {
+            socket.setSoTimeout(5000);
+            OutputStream os = socket.getOutputStream();
+            os.write(request.getBytes());
+            os.write(new byte[bodySize]);
+            os.flush();
+
+            return IOUtils.toString(socket.getInputStream());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void requestAdmissionTest() throws Exception {
+        final AtomicInteger handled = new AtomicInteger();
+        class UploadHandler extends StringHandlerAdapter implements RequestAdmission {
+            public int admit(HttpRequestContext httpRequestContext) {
+                httpRequestContext.setAttribute("upload.admitted", Boolean.TRUE);
+                return "text/plain".equals(httpRequestContext.getContentType())
+                        ? ADMIT : HttpURLConnection.HTTP_UNSUPPORTED_TYPE;
+            }
+
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                //Handler gets the same context as admission
+                if (httpRequestContext.getAttribute("upload.admitted") == null) {
+                    throw new IllegalStateException("Request was not admitted");
+                }
+
+                handled.incrementAndGet();
+                return String.valueOf(httpRequestContext.getRequestBody().length);
+            }
+        }
+
+        DefaultHttpServer defaultServer = (DefaultHttpServer) server;
+        defaultServer.setMaxRequestSize(1000);
+        server.addHandler("/upload", new UploadHandler());
+
+        assertEquals("1000", post("http://localhost:9999/upload", "text/plain", new byte[1000]));
+
+        //Rejected by headers, only part of the body is read before connection is closed.
+        //Exactly that part is sent, otherwise unread data may cause connection reset
+        String response = sendRequest("POST /upload HTTP/1.1\r\nHost: localhost\r\n"
+                + "Content-Type: text/plain\r\nContent-Length: 100000000\r\nExpect: 100-continue\r\n\r\n", 65536);
+        assertTrue(response.startsWith("HTTP/1.1 100 Continue"));
+        assertTrue(response.contains("HTTP/1.1 413"));
+        assertTrue(response.endsWith("413 Payload Too Large"));
+
+        response = sendRequest("POST /upload HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n"
+                + "Content-Type: text/plain\r\nContent-Length: 0\r\nExpect: 200-ok\r\n\r\n", 0);
+        assertTrue(response.startsWith("HTTP/1.1 417"));
+
+        response = sendRequest("POST /upload HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n"
+                + "Content-Type: application/json\r\nContent-Length: 2\r\n\r\n", 2);
+        assertTrue(response.startsWith("HTTP/1.1 415"));
+
+        //Size of chunked body is checked while it is read
+        HttpURLConnection connection = (HttpURLConnection) getConnection("http://localhost:9999/upload");
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(256);
+        connection.setRequestProperty("Content-Type", "text/plain");
+        OutputStream os = connection.getOutputStream();
+        os.write(new byte[2000]);
+        os.close();
+        assertEquals(HttpURLConnection.HTTP_ENTITY_TOO_LARGE, connection.getResponseCode());
+
+        assertEquals(2, handled.get());
+        assertEquals(4, defaultServer.getErrorsCount());
+
+        defaultServer.setSlowRequestThreshold(100);
+        defaultServer.setPartMemoryThreshold(10);
+        defaultServer.setConnectionStatsEnabled(true);
+        server.reset();
+        assertEquals(-1, defaultServer.getMaxRequestSize());
+        assertEquals(-1, defaultServer.getSlowRequestThreshold());
+        assertEquals(HttpRequestContext.DEFAULT_PART_MEMORY_THRESHOLD, defaultServer.getPartMemoryThreshold());
+        assertTrue(!defaultServer.isConnectionStatsEnabled());
+        assertEquals(0, defaultServer.getOpenConnectionsCount());
+        assertEquals(0, defaultServer.getRequestsCount());
+        assertEquals(0, defaultServer.getErrorsCount());
+        assertEquals(0, defaultServer.getErrorsCount(HttpURLConnection.HTTP_ENTITY_TOO_LARGE));
+    }
+
+    private Socket sendSlowly(String request, int bodySize) throws Exception {
+        Socket socket = new Socket("localhost", 9999);
+        socket.setSoTimeout(10000);
+        socket.getOutputStream().write(request.getBytes());
+        socket.getOutputStream().write(new byte[bodySize]);
+        socket.getOutputStream().flush();
+
+        return socket;
+    }
+
+    @Test
+    public void requestLimitsTest() throws Exception {
+        DefaultHttpServer defaultServer = (DefaultHttpServer) server;
+        server.addHandler("/upload", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                return String.valueOf(httpRequestContext.getRequestBody().length);
+            }
+        });
+
+        defaultServer.setMaxRequestHeadersSize(200);
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            value.append('a');
+        }
+
+        String response = sendRequest("GET /upload HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n"
+                + "TEST-HEADER: " + value + "\r\n\r\n", 0);
+        assertTrue(response.startsWith("HTTP/1.1 431"));
+        assertEquals("0", getResult("http://localhost:9999/upload"));
+
+        //Body sent too slowly
+        defaultServer.setMinRequestDataRate(1000);
+        Socket socket = sendSlowly("POST /upload HTTP/1.1\r\nHost: localhost\r\nContent-Length: 100\r\n\r\n", 1);
+        try {
+            OutputStream os = socket.getOutputStream();
+            for (int i = 0; i < 4; i++) {
+                Thread.sleep(400);
+                os.write(1);
+                os.flush();
+            }
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            assertTrue(reader.readLine().startsWith("HTTP/1.1 408"));
+        } finally {
+            socket.close();
+        }
+
+        assertEquals(1, defaultServer.getErrorsCount(HttpURLConnection.HTTP_CLIENT_TIMEOUT));
+    }
+
+    @Test
+    public void dataRateOfQueuedRequestTest() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        DefaultHttpServer defaultServer = (DefaultHttpServer) server;
+        defaultServer.setMinRequestDataRate(1000);
+        Bulkhead bulkhead = new Bulkhead("busy", 1, 1);
+
+        server.addHandler("/upload", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                if (started.getCount() > 0) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+
+                return String.valueOf(httpRequestContext.getRequestBody().length);
+            }
+        }, bulkhead);
+
+        CompletableFuture<String> busy = CompletableFuture.supplyAsync(new Supplier<String>() {
+            public String get() {
+                try {
+                    return post("http://localhost:9999/upload", "text/plain", new byte[10]);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        //Fast client waits in bulkhead queue longer than grace period
+        CompletableFuture<String> queued = CompletableFuture.supplyAsync(new Supplier<String>() {
+            public String get() {
+                try {
+                    return post("http://localhost:9999/upload", "text/plain", new byte[100]);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        Thread.sleep(DefaultHttpServer.DATA_RATE_GRACE_PERIOD + 500);
+        release.countDown();
+
+        assertEquals("10", busy.get(5, TimeUnit.SECONDS));
+        assertEquals("100", queued.get(5, TimeUnit.SECONDS));
+        assertEquals(0, defaultServer.getErrorsCount(HttpURLConnection.HTTP_CLIENT_TIMEOUT));
+        bulkhead.shutdown();
+    }
+
+    @Test
+    public void failedAdmissionTest() throws Exception {
+        DefaultHttpServer defaultServer = (DefaultHttpServer) server;
+        defaultServer.setConnectionStatsEnabled(true);
+        class FailingAdmissionHandler extends StringHandlerAdapter implements RequestAdmission {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                return "admitted";
+            }
+
+            public int admit(HttpRequestContext httpRequestContext) {
+                if (httpRequestContext.getQueryParam("forbidden") != null) {
+                    throw new HttpException(HttpURLConnection.HTTP_FORBIDDEN);
+                }
+
+                throw new IllegalStateException("Admission failed");
+            }
+        }
+        server.addHandler("/admission", new FailingAdmissionHandler());
+
+        assertEquals("403", getErrorResult("http://localhost:9999/admission?forbidden=true", 403));
+        String response = sendRequest("GET /admission HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n", 0);
+        assertTrue(response.startsWith("HTTP/1.1 500"));
+        assertTrue(response.endsWith("500 Internal Server Error"));
+
+        //Connection closed after failed request is not tracked anymore
+        for (int i = 0; i < 50 && defaultServer.getOpenConnectionsCount() > 1; i++) {
+            Thread.sleep(20);
+        }
+
+        for (ConnectionStats stats: defaultServer.getConnections()) {
+            assertEquals(0, stats.getActiveRequestsCount());
+        }
+
+        assertTrue(defaultServer.getOpenConnectionsCount() <= 1);
+    }
+
+    @Test
+    public void connectionStatsTest() throws Exception {
+        DefaultHttpServer defaultServer = (DefaultHttpServer) server;
+        defaultServer.setConnectionStatsEnabled(true);
+        server.addHandler("/stats", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                httpRequestContext.getRequestBody();
+                return "hello";
+            }
+        });
+
+        Socket socket = sendSlowly("POST /stats HTTP/1.1\r\nHost: localhost\r\nContent-Length: 5\r\n\r\nabcde"
+                + "GET /stats HTTP/1.1\r\nHost: localhost\r\n\r\n", 0);
+        try {
+            //Bodies of both responses are received
+            InputStream is = socket.getInputStream();
+            StringBuilder responses = new StringBuilder();
+            while (responses.indexOf("hello") == responses.lastIndexOf("hello") || !responses.toString().endsWith("hello")) {
+                responses.append((char) is.read());
+            }
+
+            ConnectionStats stats = null;
+            for (int i = 0; i < 50 && (stats == null || stats.getRequestsCount() < 2); i++) {
+                Thread.sleep(20);
+                for (ConnectionStats connection: defaultServer.getConnections()) {
+                    if (connection.getRemoteAddress().getPort() == socket.getLocalPort()) {
+                        stats = connection;
+                    }
+                }
+            }
+
+            assertEquals(2, stats.getRequestsCount());
+            assertEquals(5, stats.getBytesRead());
+            assertEquals(10, stats.getBytesWritten());
+            assertEquals(0, stats.getActiveRequestsCount());
+            assertTrue(stats.getTime(RequestTrace.HANDLER_COMPLETED, TimeUnit.NANOSECONDS) > 0);
+            assertTrue(defaultServer.getOpenConnectionsCount() >= 1);
+        } finally {
+            socket.close();
+        }
+
+        //Connection is closed after request with Connection: close
+        socket = sendSlowly("GET /stats HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n", 0);
+        try {
+            assertTrue(IOUtils.toString(socket.getInputStream()).endsWith("hello"));
+            int port = socket.getLocalPort();
+            boolean open = true;
+            for (int i = 0; i < 50 && open; i++) {
+                Thread.sleep(20);
+                open = false;
+                for (ConnectionStats connection: defaultServer.getConnections()) {
+                    open |= connection.getRemoteAddress().getPort() == port;
+                }
+            }
+
+            assertTrue(!open);
+        } finally {
+            socket.close();
+        }
+
+        defaultServer.setConnectionStatsEnabled(false);
+        assertEquals(0, defaultServer.getOpenConnectionsCount());
+    }
+
+    @Test
+    public void snapshotTest() throws Exception {
+        server.addHandler("/code", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                return "proxied";
+            }
+        });
+
+        File routes = File.createTempFile("routes", ".json");
+        File snapshot = File.createTempFile("snapshot", ".json");
+        DefaultHttpServer original = new DefaultHttpServer();
+        DefaultHttpServer restored = null;
+        try {
+            FileUtils.writeStringToFile(routes, "{\"routes\": [{\"request\": {\"path\": \"/mock/item\"},"
+                    + " \"response\": {\"body\": \"mocked\"}}]}", "UTF-8");
+
+            original.setPort(0);
+            original.setMaxThreads(2);
+            original.setMaxRequestSize(1000);
+            original.addResponseHeader("X-Default", "d");
+            original.setErrorResponse(new StaticResponseHandler(HttpURLConnection.HTTP_NOT_FOUND,
+                    new HashMap<String, String>(), "missing".getBytes()));
+
+            Map<String, String> headers = new HashMap<String, String>();
+            headers.put("X-A", "1");
+            original.addHandler("/static", new StaticResponseHandler(HttpURLConnection.HTTP_CREATED,
+                    headers, "created".getBytes()));
+            original.addHandler("example.com", "/", new StaticResponseHandler("vhost", Charset.forName("UTF-8")));
+            original.addMockRoutes("/mock", routes);
+            original.setFallbackHandler(new ProxyHttpHandler("http://localhost:9999"));
+
+            //Handlers defined by code are skipped
+            original.addHandler("/code", new StringHandlerAdapter() {
+                @Override
+                public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                    return "code";
+                }
+            });
+
+            original.saveSnapshot(snapshot);
+            restored = DefaultHttpServer.restore(snapshot);
+            assertEquals(original.getSnapshot(), restored.getSnapshot());
+            assertEquals(1000, restored.getMaxRequestSize());
+            assertEquals(2, restored.getMaxThreads());
+
+            restored.start();
+            String baseUrl = "http://localhost:" + restored.getPort();
+            URLConnection connection = getConnection(baseUrl + "/static");
+            assertEquals("created", getResult(connection));
+            assertEquals(HttpURLConnection.HTTP_CREATED, ((HttpURLConnection) connection).getResponseCode());
+            assertEquals("1", connection.getHeaderField("X-A"));
+            assertEquals("d", connection.getHeaderField("X-Default"));
+            assertEquals("mocked", getResult(baseUrl + "/mock/item"));
+            assertEquals("proxied", getResult(baseUrl + "/code"));
+
+            //Error response of other type is not valid
+            try {
+                DefaultHttpServer.restore(original.getSnapshot().replace("\"errorResponses\": [",
+                        "\"errorResponses\": [{\"type\": \"proxy\", \"upstream\": \"http://localhost:1\","
+                                + " \"connectTimeout\": 1, \"readTimeout\": 1}, "));
+                fail("Snapshot should not be valid");
+            } catch (IllegalArgumentException e) {
+                //Only static responses are allowed
+            }
+        } finally {
+            original.stop();
+            if (restored != null) {
+                restored.stop();
+            }
+
+            routes.delete();
+            snapshot.delete();
+        }
+    }
+
     @Test
     public void testCascadingPath() throws Exception {
         server.addHandler("/", new ByteArrayHandlerAdapter() {
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link SharedState} and its replication
+ *
+ * @author Sergey Prilukin
+ */
+public class SharedStateTest {
+
+    private DefaultHttpServer server;
+
+    @Before
+    public void init() {
+        server = new DefaultHttpServer();
+        server.setPort(0);
+        server.setMaxThreads(3);
+        server.start();
+    }
+
+    @After
+    public void finish() {
+        server.stop();
+    }
+
+    private String getResult(URLConnection connection) throws Exception {
+        InputStream is = connection.getInputStream();
+        String result = IOUtils.toString(is);
+        is.close();
+        return result;
+    }
+
+    private String getResult(String urlString) throws Exception {
+        return getResult(getConnection(urlString));
+    }
+
+    private URLConnection getConnection(String urlString) throws Exception {
+        return (new URL(urlString)).openConnection();
+    }
+
+    @Test
+    public void sharedStateTest() throws Exception {
+        StateTransport transport = new LoopbackStateTransport();
+        final SharedState state1 = new SharedState("node1", transport);
+        SharedState state2 = new SharedState("node2", transport);
+
+        server.addHandler("/", new StringHandlerAdapter() {
+            @Override
+            public String getResponseAsString(HttpRequestContext httpRequestContext) throws IOException {
+                state1.put("scenario", httpRequestContext.getQueryParam("state"));
+                return Long.toString(state1.increment("hits", 1));
+            }
+        });
+
+        assertEquals("1", getResult(server.getBaseUrl() + "/?state=started"));
+        assertEquals("2", getResult(server.getBaseUrl() + "/?state=paid"));
+        assertEquals(2, state1.getPendingCount());
+        assertEquals(null, state2.get("scenario"));
+
+        state2.increment("hits", 5);
+        state1.flush();
+        state2.flush();
+        assertEquals("paid", state2.get("scenario"));
+        assertEquals(7, state1.getCounter("hits"));
+        assertEquals(7, state2.getCounter("hits"));
+
+        //Last writer wins
+        state1.put("scenario", "shipped");
+        state2.put("scenario", "cancelled");
+        state1.flush();
+        state2.flush();
+        assertEquals("cancelled", state1.get("scenario"));
+        assertEquals("cancelled", state2.get("scenario"));
+
+        server.addSharedState(state2);
+        state2.remove("scenario");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (state1.get("scenario") != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(null, state1.get("scenario"));
+        state1.close();
+        state2.close();
+    }
+
+    @Test
+    public void sharedStateReplicationFailureTest() throws Exception {
+        final StateTransport loopback = new LoopbackStateTransport();
+        final AtomicInteger failures = new AtomicInteger(3);
+        StateTransport transport = new StateTransport() {
+            public void connect(SharedState node) {
+                loopback.connect(node);
+            }
+
+            public void disconnect(SharedState node) {
+                loopback.disconnect(node);
+            }
+
+            public void publish(SharedState sender, List<StateUpdate> updates) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("Network is down");
+                }
+
+                loopback.publish(sender, updates);
+            }
+        };
+
+        SharedState state1 = new SharedState("node1", transport);
+        SharedState state2 = new SharedState("node2", transport);
+
+        state1.put("scenario", "started");
+        state1.increment("hits", 1);
+        try {
+            state1.flush();
+            fail("Transport should fail");
+        } catch (IllegalStateException e) {
+            //Updates are queued again
+        }
+
+        assertEquals(2, state1.getPendingCount());
+
+        //Newer update supersedes the failed one, periodical replication survives failures
+        state1.put("scenario", "paid");
+        server.addSharedState(state1);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (state2.getCounter("hits") != 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals("paid", state2.get("scenario"));
+        assertEquals(1, state2.getCounter("hits"));
+        assertEquals(0, state1.getPendingCount());
+
+        //Replication is stopped with server
+        server.stop();
+        state1.put("scenario", "shipped");
+        Thread.sleep(SharedState.DEFAULT_REPLICATION_INTERVAL * 4);
+        assertEquals(1, state1.getPendingCount());
+        assertEquals("paid", state2.get("scenario"));
+        state1.close();
+        state2.close();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2011 Sergey Prilukin
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package anhttpserver;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link Template} and {@link TemplateHandlerAdapter}
+ *
+ * @author Sergey Prilukin
+ */
+public class TemplateTest {
+
+    private DefaultHttpServer server;
+
+    @Before
+    public void init() {
+        server = new DefaultHttpServer();
+        server.setPort(0);
+        server.setMaxThreads(3);
+        server.start();
+    }
+
+    @After
+    public void finish() {
+        server.stop();
+    }
+
+    private String getResult(URLConnection connection) throws Exception {
+        InputStream is = connection.getInputStream();
+        String result = IOUtils.toString(is);
+        is.close();
+        return result;
+    }
+
+    private String getResult(String urlString) throws Exception {
+        return getResult(getConnection(urlString));
+    }
+
+    private URLConnection getConnection(String urlString) throws Exception {
+        return (new URL(urlString)).openConnection();
+    }
+
+    @Test
+    public void templateHandlerAdapterTest() throws Exception {
+        server.addHandler("/orders", new TemplateHandlerAdapter(Template.compile(
+                "{\"order\": \"{{path.1}}\", \"q\": \"{{query.q}}\", \"agent\": \"{{header.X-Agent}}\","
+                        + " \"name\": \"{{body.customer.name}}\", \"n\": {{counter}}}"), "application/json"));
+
+        HttpURLConnection connection = (HttpURLConnection) getConnection(server.getBaseUrl() + "/orders/7?q=%C3%A9");
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("X-Agent", "test");
+        OutputStream os = connection.getOutputStream();
+        os.write("{\"customer\": {\"name\": \"john\"}}".getBytes());
+        os.close();
+
+        assertEquals("application/json; charset=UTF-8", connection.getHeaderField("Content-Type"));
+        assertEquals("{\"order\": \"7\", \"q\": \"\u00e9\", \"agent\": \"test\", \"name\": \"john\", \"n\": 1}",
+                IOUtils.toString(connection.getInputStream(), "UTF-8"));
+        assertEquals("{\"order\": \"8\", \"q\": \"\", \"agent\": \"\", \"name\": \"\", \"n\": 2}",
+                getResult(server.getBaseUrl() + "/orders/8"));
+    }
+
+    @Test
+    public void templateJsonEscapingTest() throws Exception {
+        server.addHandler("/echo", new TemplateHandlerAdapter(Template.compile(
+                "{\"name\": \"{{json body.customer.name}}\", \"body\": \"{{json body}}\","
+                        + " \"q\": \"{{ json query.q }}\", \"raw\": \"{{query.q}}\"}"), "application/json"));
+
+        String body = "{\"customer\": {\"name\": \"jo\\\"hn\\n\\\\\"}}";
+        HttpURLConnection connection = (HttpURLConnection) getConnection(server.getBaseUrl() + "/echo?q=a%22b");
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        OutputStream os = connection.getOutputStream();
+        os.write(body.getBytes("UTF-8"));
+        os.close();
+
+        String result = IOUtils.toString(connection.getInputStream(), "UTF-8");
+        assertTrue(result.endsWith("\"raw\": \"a\"b\"}"));
+        Map<?, ?> json = (Map<?, ?>) Json.parse(result.replace("\"raw\": \"a\"b\"", "\"raw\": null"));
+        assertEquals("jo\"hn\n\\", json.get("name"));
+        assertEquals(body, json.get("body"));
+        assertEquals("a\"b", json.get("q"));
+    }
+}